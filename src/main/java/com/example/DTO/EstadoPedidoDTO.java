@@ -0,0 +1,16 @@
+package com.example.DTO;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import lombok.Data;
+
+@Data
+public class EstadoPedidoDTO {
+    private int id;
+    private String estado; // RECIBIDO, PENDIENTE, RECHAZADO, FINALIZADO
+    private LocalDateTime fecha;
+
+    private List<String> errores; // solo si fue RECHAZADO
+    private PedidoResponseDTO pedido; // solo si ya fue procesado
+}
@@ -16,6 +16,7 @@ public class LibroDTO {
     private String fechaPublicacion;
     private double precio;
     private double descuento;
-    private int stock;
-    private boolean estado;
+    // Nulos cuando el libro sale de la foto guardada en el pedido (no se conocen sin consultar libro-service)
+    private Integer stock;
+    private Boolean estado;
 }
\ No newline at end of file
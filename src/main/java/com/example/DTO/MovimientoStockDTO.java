@@ -0,0 +1,17 @@
+package com.example.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class MovimientoStockDTO {
+    private int libroId;
+    private int cantidad;
+
+    // Clave de idempotencia del movimiento (p. ej. "outbox-123"): libro-service no vuelve a aplicar
+    // un movimiento cuya referencia ya aplicó
+    private String referencia;
+}
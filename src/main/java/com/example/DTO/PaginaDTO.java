@@ -0,0 +1,20 @@
+package com.example.DTO;
+
+import java.util.List;
+
+import lombok.Data;
+
+@Data
+public class PaginaDTO<T> {
+    private List<T> items;
+
+    // Paginación por número de página (page/size)
+    private Integer pagina;
+    private Long totalElementos;
+    private Integer totalPaginas;
+
+    // Paginación por cursor (afterId/limit): id a enviar como afterId, null si no hay más
+    private Integer siguienteCursor;
+
+    private int tamanio;
+}
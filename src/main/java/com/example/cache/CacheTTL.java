@@ -0,0 +1,106 @@
+package com.example.cache;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Caché en memoria acotada: cada entrada expira según su TTL y, al superar
+// maxEntradas, se desaloja la usada hace más tiempo (LRU).
+public class CacheTTL<K, V> {
+
+    public record Estadisticas(long aciertos, long fallos, long desalojos, int tamanio) {
+    }
+
+    private record Entrada<V>(V valor, long expiraEnNanos) {
+    }
+
+    private final int maxEntradas;
+    private final LinkedHashMap<K, Entrada<V>> entradas;
+    private final LongSupplier relojNanos;
+
+    private long aciertos;
+    private long fallos;
+    private long desalojos;
+
+    public CacheTTL(int maxEntradas) {
+        this(maxEntradas, System::nanoTime);
+    }
+
+    // Reloj inyectable para las pruebas de expiración
+    CacheTTL(int maxEntradas, LongSupplier relojNanos) {
+        if (maxEntradas <= 0) {
+            throw new IllegalArgumentException("maxEntradas debe ser mayor que 0");
+        }
+        this.maxEntradas = maxEntradas;
+        this.relojNanos = relojNanos;
+        // accessOrder = true: el orden de iteración va del menos al más recientemente usado
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entrada<V>> masAntigua) {
+                if (size() > CacheTTL.this.maxEntradas) {
+                    desalojos++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized V obtener(K clave) {
+        Entrada<V> entrada = entradas.get(clave);
+        if (entrada == null) {
+            fallos++;
+            return null;
+        }
+        if (entrada.expiraEnNanos() - relojNanos.getAsLong() <= 0) {
+            // La entrada vencida se conserva (hasta ser desalojada) como respaldo de obtenerAunqueExpirado
+            fallos++;
+            return null;
+        }
+        aciertos++;
+        return entrada.valor();
+    }
+
+    // Último valor conocido aunque haya vencido: respaldo cuando el origen no responde
+    public synchronized V obtenerAunqueExpirado(K clave) {
+        Entrada<V> entrada = entradas.get(clave);
+        return entrada == null ? null : entrada.valor();
+    }
+
+    public synchronized void guardar(K clave, V valor, Duration ttl) {
+        if (valor == null || ttl.isZero() || ttl.isNegative()) {
+            return;
+        }
+        entradas.put(clave, new Entrada<>(valor, relojNanos.getAsLong() + ttl.toNanos()));
+    }
+
+    public synchronized void invalidar(K clave) {
+        entradas.remove(clave);
+    }
+
+    public synchronized Estadisticas estadisticas() {
+        return new Estadisticas(aciertos, fallos, desalojos, entradas.size());
+    }
+
+    // Publica aciertos, fallos, desalojos y tamaño con los nombres estándar de Micrometer para cachés
+    // (cache.gets, cache.evictions, cache.size) y la etiqueta cache=nombre
+    public void registrarMetricas(MeterRegistry registry, String nombre) {
+        FunctionCounter.builder("cache.gets", this, cache -> cache.estadisticas().aciertos())
+                .tags("cache", nombre, "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", this, cache -> cache.estadisticas().fallos())
+                .tags("cache", nombre, "result", "miss")
+                .register(registry);
+        FunctionCounter.builder("cache.evictions", this, cache -> cache.estadisticas().desalojos())
+                .tag("cache", nombre)
+                .register(registry);
+        Gauge.builder("cache.size", this, cache -> cache.estadisticas().tamanio())
+                .tag("cache", nombre)
+                .register(registry);
+    }
+}
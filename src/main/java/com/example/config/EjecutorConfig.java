@@ -0,0 +1,73 @@
+package com.example.config;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class EjecutorConfig {
+
+    // Ejecutor acotado para las consultas a libro-service
+    @Bean(name = "librosExecutor")
+    public AsyncTaskExecutor librosExecutor(
+            @Value("${libros.consulta.max-concurrencia:16}") int maxConcurrencia,
+            @Value("${spring.threads.virtual.enabled:false}") boolean hilosVirtuales) {
+        return crearEjecutor("libros-", maxConcurrencia, hilosVirtuales);
+    }
+
+    // Ejecutor acotado para las consultas SOAP a auth-service
+    @Bean(name = "authExecutor")
+    public AsyncTaskExecutor authExecutor(
+            @Value("${auth.consulta.max-concurrencia:8}") int maxConcurrencia,
+            @Value("${spring.threads.virtual.enabled:false}") boolean hilosVirtuales) {
+        return crearEjecutor("auth-", maxConcurrencia, hilosVirtuales);
+    }
+
+    // Procesa los pedidos recibidos con generar-pedido-async. Nunca corre la tarea en el hilo HTTP:
+    // si la cola se llena el pedido queda RECIBIDO y lo retoma PedidosRecibidosBarrido.
+    @Bean(name = "pedidosExecutor")
+    public AsyncTaskExecutor pedidosExecutor(
+            @Value("${pedidos.async.max-concurrencia:8}") int maxConcurrencia,
+            @Value("${pedidos.async.capacidad-cola:1000}") int capacidadCola,
+            @Value("${spring.threads.virtual.enabled:false}") boolean hilosVirtuales) {
+        if (hilosVirtuales) {
+            // Sin límite propio: con límite el envío bloquearía el hilo HTTP; las consultas
+            // ya están acotadas por librosExecutor y el bulkhead de libro-service
+            SimpleAsyncTaskExecutor ejecutor = new SimpleAsyncTaskExecutor("pedidos-");
+            ejecutor.setVirtualThreads(true);
+            return ejecutor;
+        }
+
+        ThreadPoolTaskExecutor ejecutor = new ThreadPoolTaskExecutor();
+        ejecutor.setThreadNamePrefix("pedidos-");
+        ejecutor.setCorePoolSize(maxConcurrencia);
+        ejecutor.setMaxPoolSize(maxConcurrencia);
+        ejecutor.setQueueCapacity(capacidadCola);
+        ejecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        return ejecutor;
+    }
+
+    static AsyncTaskExecutor crearEjecutor(String prefijo, int maxConcurrencia, boolean hilosVirtuales) {
+        if (hilosVirtuales) {
+            // Java 21 (perfil java21): un hilo virtual por tarea, limitado a maxConcurrencia simultáneas
+            SimpleAsyncTaskExecutor ejecutor = new SimpleAsyncTaskExecutor(prefijo);
+            ejecutor.setVirtualThreads(true);
+            ejecutor.setConcurrencyLimit(maxConcurrencia);
+            return ejecutor;
+        }
+
+        // Java 17: pool fijo; si la cola se llena la tarea corre en el hilo que la envía
+        ThreadPoolTaskExecutor ejecutor = new ThreadPoolTaskExecutor();
+        ejecutor.setThreadNamePrefix(prefijo);
+        ejecutor.setCorePoolSize(maxConcurrencia);
+        ejecutor.setMaxPoolSize(maxConcurrencia);
+        ejecutor.setQueueCapacity(maxConcurrencia * 50);
+        ejecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return ejecutor;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.config;
+
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+
+// Las tablas ya tienen filas con ids IDENTITY: antes del primer insert se adelanta cada contador
+// de id_generador por encima del id máximo existente para que los bloques nuevos no choquen.
+@Component
+public class IdGeneradorInicializador {
+
+    private static final Logger log = LoggerFactory.getLogger(IdGeneradorInicializador.class);
+
+    // Igual al allocationSize de los @TableGenerator de las entidades
+    private static final int TAMANIO_BLOQUE = 50;
+
+    // pkColumnValue del generador -> tabla de la entidad
+    private static final Map<String, String> TABLAS = Map.of(
+            "pedido", "pedido",
+            "detalle_pedido", "detalle_pedido",
+            "outbox_stock", "outbox_stock",
+            "reserva_stock", "reserva_stock");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // Se inyecta para que el esquema (incluida id_generador) ya esté actualizado por Hibernate
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @PostConstruct
+    void inicializar() {
+        TABLAS.forEach(this::adelantarContador);
+    }
+
+    private void adelantarContador(String entidad, String tabla) {
+        Long maximo = jdbcTemplate.queryForObject("select coalesce(max(id), 0) from " + tabla, Long.class);
+        if (maximo == null || maximo == 0) {
+            return;
+        }
+
+        // El optimizador pooled entrega (valor - bloque + 1 .. valor) al leer "valor"
+        long minimo = maximo + TAMANIO_BLOQUE + 1;
+        int actualizadas = jdbcTemplate.update(
+                "update id_generador set siguiente_valor = ? where entidad = ? and siguiente_valor < ?",
+                minimo, entidad, minimo);
+
+        if (actualizadas == 0) {
+            Integer existe = jdbcTemplate.queryForObject(
+                    "select count(*) from id_generador where entidad = ?", Integer.class, entidad);
+            if (existe == null || existe == 0) {
+                jdbcTemplate.update("insert into id_generador (entidad, siguiente_valor) values (?, ?)",
+                        entidad, minimo);
+                actualizadas = 1;
+            }
+        }
+
+        if (actualizadas > 0) {
+            log.info("Generador de ids de {} adelantado a {} (id máximo {})", entidad, minimo, maximo);
+        }
+    }
+}
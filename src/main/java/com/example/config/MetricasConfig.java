@@ -0,0 +1,20 @@
+package com.example.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.config.MeterFilter;
+
+@Configuration
+public class MetricasConfig {
+
+    // libros.consulta.coalescidas lleva el libroId como tag: a partir de cierto número de libros
+    // distintos se dejan de registrar series nuevas para no agotar la memoria del registro
+    @Bean
+    public MeterFilter limiteLibrosCoalescidos(
+            @Value("${libros.consulta.coalescidas.max-libros:1000}") int maxLibros) {
+        return MeterFilter.maximumAllowableTags("libros.consulta.coalescidas", "libroId", maxLibros,
+                MeterFilter.deny());
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.ws.client.WebServiceIOException;
+import org.springframework.ws.client.WebServiceTransportException;
+
+import com.example.feign.LibroService;
+import com.example.resiliencia.ProteccionRemota;
+
+@Configuration
+public class ResilienciaConfig {
+
+    @Bean(name = "proteccionLibros")
+    public ProteccionRemota proteccionLibros(
+            @Value("${libros.proteccion.max-concurrentes:32}") int maxConcurrentes,
+            @Value("${libros.proteccion.espera-cupo:100ms}") Duration esperaCupo,
+            @Value("${libros.proteccion.umbral-fallos:5}") int umbralFallos,
+            @Value("${libros.proteccion.tiempo-abierto:30s}") Duration tiempoAbierto) {
+        // Solo cuentan como fallo los timeouts/conexión y los 5xx
+        return new ProteccionRemota("libro-service", maxConcurrentes, esperaCupo, umbralFallos, tiempoAbierto,
+                LibroService::esFallaTransitoria);
+    }
+
+    @Bean(name = "proteccionAuth")
+    public ProteccionRemota proteccionAuth(
+            @Value("${auth.proteccion.max-concurrentes:32}") int maxConcurrentes,
+            @Value("${auth.proteccion.espera-cupo:100ms}") Duration esperaCupo,
+            @Value("${auth.proteccion.umbral-fallos:5}") int umbralFallos,
+            @Value("${auth.proteccion.tiempo-abierto:30s}") Duration tiempoAbierto) {
+        // Errores de transporte (conexión, timeouts, HTTP 5xx); los SOAP faults son respuestas del servicio
+        return new ProteccionRemota("auth-service", maxConcurrentes, esperaCupo, umbralFallos, tiempoAbierto,
+                e -> e instanceof WebServiceIOException || e instanceof WebServiceTransportException);
+    }
+}
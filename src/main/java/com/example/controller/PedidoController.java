@@ -1,11 +1,10 @@
 package com.example.controller;
 
-import java.util.List;
-
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -13,11 +12,16 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.example.DTO.PedidoDTO;
 import com.example.DTO.PedidoRequestDTO;
 import com.example.model.Pedido;
+import com.example.security.RequiereRol;
+import com.example.security.UsuarioActual;
+import com.example.service.ConflictoConcurrenciaException;
 import com.example.service.PedidoService;
 
 import jakarta.validation.Valid;
@@ -30,9 +34,21 @@ public class PedidoController {
     @Autowired
     private PedidoService pedidoService;
 
+    // Usuario validado por AutenticacionInterceptor en los endpoints con @RequiereRol
+    @Autowired
+    private UsuarioActual usuarioActual;
+
     @GetMapping
-    public ResponseEntity<List<Pedido>> listar() {
-        return ResponseEntity.ok(pedidoService.listarPedidos());
+    public ResponseEntity<?> listar(
+            @RequestParam(required = false) Integer page,
+            @RequestParam(required = false) Integer size,
+            @RequestParam(required = false) Integer afterId,
+            @RequestParam(required = false) Integer limit) {
+        // Sin parámetros se mantiene la lista completa para los clientes existentes
+        if (page == null && size == null && afterId == null && limit == null) {
+            return ResponseEntity.ok(pedidoService.listarPedidos());
+        }
+        return ResponseEntity.ok(pedidoService.listarPedidos(page, size, afterId, limit));
     }
 
     @GetMapping("/{id}")
@@ -41,10 +57,10 @@ public class PedidoController {
     }
 
     @PostMapping
-    public ResponseEntity<?> crear(@RequestHeader("Authorization") String authorization,
-            @Valid @RequestBody PedidoDTO dto) {
+    @RequiereRol("ROLE_ADMIN")
+    public ResponseEntity<?> crear(@Valid @RequestBody PedidoDTO dto) {
         try {
-            Pedido creado = pedidoService.crearPedido(dto, authorization);
+            Pedido creado = pedidoService.crearPedido(dto);
             return ResponseEntity.status(201).body(creado);
         } catch (RuntimeException ex) {
             return ResponseEntity.badRequest().body(ex.getMessage());
@@ -54,12 +70,14 @@ public class PedidoController {
     }
 
     @PutMapping("/{id}")
-    public ResponseEntity<?> actualizar(@RequestHeader("Authorization") String authorization,
-            @PathVariable int id,
+    @RequiereRol("ROLE_ADMIN")
+    public ResponseEntity<?> actualizar(@PathVariable int id,
             @Valid @RequestBody PedidoDTO dto) {
         try {
-            Pedido actualizado = pedidoService.actualizarPedido(id, dto, authorization);
+            Pedido actualizado = pedidoService.actualizarPedido(id, dto);
             return ResponseEntity.ok(actualizado);
+        } catch (ConflictoConcurrenciaException ex) {
+            return ResponseEntity.status(409).body(ex.getMessage());
         } catch (RuntimeException ex) {
             return ResponseEntity.badRequest().body(ex.getMessage());
         } catch (Exception e) {
@@ -68,10 +86,10 @@ public class PedidoController {
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> eliminar(@RequestHeader("Authorization") String authorization,
-            @PathVariable int id) {
+    @RequiereRol("ROLE_ADMIN")
+    public ResponseEntity<?> eliminar(@PathVariable int id) {
         try {
-            pedidoService.eliminarPedido(id, authorization);
+            pedidoService.eliminarPedido(id);
             return ResponseEntity.noContent().build();
         } catch (RuntimeException ex) {
             return ResponseEntity.badRequest().body(ex.getMessage());
@@ -81,11 +99,13 @@ public class PedidoController {
     }
 
     @PutMapping("/{id}/finalizar")
-    public ResponseEntity<?> finalizar(@RequestHeader("Authorization") String authorization,
-            @PathVariable int id) {
+    @RequiereRol("ROLE_ADMIN")
+    public ResponseEntity<?> finalizar(@PathVariable int id) {
         try {
-            Pedido p = pedidoService.finalizarPedido(id, authorization);
+            Pedido p = pedidoService.finalizarPedido(id);
             return ResponseEntity.ok(p);
+        } catch (ConflictoConcurrenciaException ex) {
+            return ResponseEntity.status(409).body(ex.getMessage());
         } catch (RuntimeException ex) {
             return ResponseEntity.badRequest().body(ex.getMessage());
         } catch (Exception e) {
@@ -94,33 +114,65 @@ public class PedidoController {
     }
 
     @PostMapping("/generar-pedido")
+    @RequiereRol(value = "ROLE_USER", mensaje = "Acceso denegado. Solo los usuarios con rol CLIENTE pueden generar pedidos.")
     public ResponseEntity<?> generarPedido(
-            @RequestHeader("Authorization") String tokenHeader,
+            @RequestHeader(value = "Idempotency-Key", required = false) String claveIdempotencia,
             @Valid @RequestBody PedidoRequestDTO pedidoRequest) {
 
         // El controlador solo delega la lógica al servicio
-        return pedidoService.validarYAutorizarPedido(tokenHeader, pedidoRequest);
+        return pedidoService.generarPedido(usuarioActual.getUsuario(), claveIdempotencia, pedidoRequest);
+    }
+
+    // Responde 202 en cuanto el pedido queda RECIBIDO; el resultado se consulta en /pedidos/estado/{id}
+    @PostMapping("/generar-pedido-async")
+    @RequiereRol(value = "ROLE_USER", mensaje = "Acceso denegado. Solo los usuarios con rol CLIENTE pueden generar pedidos.")
+    public ResponseEntity<?> generarPedidoAsync(
+            @RequestHeader(value = "Idempotency-Key", required = false) String claveIdempotencia,
+            @Valid @RequestBody PedidoRequestDTO pedidoRequest) {
+
+        return pedidoService.recibirPedido(usuarioActual.getUsuario(), claveIdempotencia, pedidoRequest);
+    }
+
+    @GetMapping("/estado/{id}")
+    @RequiereRol(value = "ROLE_USER", mensaje = "Acceso denegado. Solo los usuarios con rol CLIENTE pueden ver sus pedidos.")
+    public ResponseEntity<?> obtenerEstadoPedido(@PathVariable("id") int pedidoId) {
+        return pedidoService.obtenerEstadoPedido(usuarioActual.getUsuario(), pedidoId);
     }
 
     @GetMapping("/mis-pedidos")
-    public ResponseEntity<?> obtenerMisPedidos(
-            @RequestHeader("Authorization") String tokenHeader) {
-        return pedidoService.obtenerPedidosCliente(tokenHeader);
+    @RequiereRol(value = "ROLE_USER", mensaje = "Acceso denegado. Solo los usuarios con rol CLIENTE pueden ver sus pedidos.")
+    public ResponseEntity<?> obtenerMisPedidos() {
+        return pedidoService.obtenerPedidosCliente(usuarioActual.getUsuario());
     }
 
     @GetMapping("/listar-todos")
+    @RequiereRol(value = "ROLE_ADMIN", mensaje = "Acceso denegado. Solo los administradores pueden listar pedidos.")
     public ResponseEntity<?> listarTodosLosPedidos(
-            @RequestHeader("Authorization") String tokenHeader) {
+            @RequestParam(required = false) Integer page,
+            @RequestParam(required = false) Integer size,
+            @RequestParam(required = false) Integer afterId,
+            @RequestParam(required = false) Integer limit) {
+
+        return pedidoService.listarPedidosAdmin(page, size, afterId, limit);
+    }
+
+    @GetMapping("/exportar")
+    @RequiereRol(value = "ROLE_ADMIN", mensaje = "Acceso denegado. Solo los administradores pueden exportar pedidos.")
+    public ResponseEntity<StreamingResponseBody> exportarPedidos() {
 
-        return pedidoService.listarPedidosAdmin(tokenHeader);
+        return pedidoService.exportarPedidos();
     }
 
     @PutMapping("/finalizar/{id}")
-    public ResponseEntity<?> finalizarPedido(
-            @RequestHeader("Authorization") String tokenHeader,
-            @PathVariable("id") int pedidoId) {
+    @RequiereRol(value = "ROLE_ADMIN", mensaje = "Solo administradores pueden finalizar pedidos.")
+    public ResponseEntity<?> finalizarPedido(@PathVariable("id") int pedidoId) {
+
+        return pedidoService.finalizarPedidoPendiente(pedidoId);
+    }
 
-        return pedidoService.finalizarPedido(tokenHeader, pedidoId);
+    @ExceptionHandler(ConflictoConcurrenciaException.class)
+    public ResponseEntity<String> conflicto(ConflictoConcurrenciaException ex) {
+        return ResponseEntity.status(409).body(ex.getMessage());
     }
 
-}
\ No newline at end of file
+}
@@ -1,5 +1,8 @@
 package com.example.feign;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -7,8 +10,10 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 
 import com.example.DTO.LibroDTO;
+import com.example.DTO.MovimientoStockDTO;
 
 @FeignClient(name = "libroClient", url = "http://localhost:8082/libros") // URL del libro_service
 public interface LibroClient {
@@ -16,15 +21,26 @@ public interface LibroClient {
     @GetMapping("/{id}")
     LibroDTO obtenerLibroPorId(@PathVariable("id") int id);
 
+    // Consulta en lote: un solo request para todos los ids de un pedido
+    @GetMapping("/por-ids")
+    List<LibroDTO> obtenerLibrosPorIds(@RequestParam("ids") Collection<Integer> ids);
+
     @PutMapping("/actualizar/{id}")
     ResponseEntity<?> actualizarLibro(
             @RequestHeader("Authorization") String token,
             @PathVariable int id,
             @RequestBody LibroDTO libroDTO);
 
+    // Descuento de una línea; la referencia evita aplicarla dos veces si se reenvía
     @PutMapping("/restar-stock/{id}/{cantidad}")
     ResponseEntity<Void> restarStock(
             @PathVariable("id") int id,
-            @PathVariable("cantidad") int cantidad);
+            @PathVariable("cantidad") int cantidad,
+            @RequestParam("referencia") String referencia);
+
+    // Descuento en lote: libro-service aplica todas las líneas o ninguna. Cada línea lleva su
+    // referencia para que un reenvío (p. ej. tras un timeout) no descuente dos veces
+    @PutMapping("/restar-stock")
+    ResponseEntity<Void> restarStockLote(@RequestBody List<MovimientoStockDTO> movimientos);
 
-}
\ No newline at end of file
+}
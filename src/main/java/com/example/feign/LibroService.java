@@ -0,0 +1,264 @@
+package com.example.feign;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import com.example.DTO.LibroDTO;
+import com.example.DTO.MovimientoStockDTO;
+import com.example.cache.CacheTTL;
+import com.example.resiliencia.ProteccionRemota;
+
+import feign.FeignException;
+import feign.RetryableException;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+@Service
+public class LibroService {
+
+    @Autowired
+    private LibroClient libroClient;
+
+    @Autowired
+    @Qualifier("proteccionLibros")
+    private ProteccionRemota proteccion;
+
+    @Autowired
+    @Qualifier("librosExecutor")
+    private AsyncTaskExecutor librosExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${libros.cache.max-entradas:2000}")
+    private int cacheMaxEntradas;
+
+    @Value("${libros.cache.ttl:2m}")
+    private Duration cacheTtl;
+
+    @Value("${libros.lote.reintentar-tras:10m}")
+    private Duration reintentarLoteTras;
+
+    // 0 mientras /por-ids funcione; si libro-service no lo soporta, hasta cuándo no reintentarlo
+    private volatile long loteNoSoportadoHastaNanos;
+
+    // Igual para PUT /restar-stock
+    private volatile long restarLoteNoSoportadoHastaNanos;
+
+    // Solo para mostrar datos del libro; precio y stock al crear pedidos se consultan sin caché
+    private CacheTTL<Integer, LibroDTO> cacheLibros;
+
+    // Consultas a libro-service en curso por id: las peticiones simultáneas del mismo libro esperan
+    // esa llamada en lugar de repetirla (no guarda nada una vez termina)
+    private final ConcurrentMap<Integer, CompletableFuture<LibroDTO>> consultasEnCurso = new ConcurrentHashMap<>();
+
+    public LibroService() {
+    }
+
+    // Para pruebas: las mismas dependencias que inyecta Spring, sin contexto
+    LibroService(LibroClient libroClient, ProteccionRemota proteccion, AsyncTaskExecutor librosExecutor,
+            MeterRegistry meterRegistry, int cacheMaxEntradas, Duration cacheTtl, Duration reintentarLoteTras) {
+        this.libroClient = libroClient;
+        this.proteccion = proteccion;
+        this.librosExecutor = librosExecutor;
+        this.meterRegistry = meterRegistry;
+        this.cacheMaxEntradas = cacheMaxEntradas;
+        this.cacheTtl = cacheTtl;
+        this.reintentarLoteTras = reintentarLoteTras;
+        iniciarCache();
+    }
+
+    @PostConstruct
+    void iniciarCache() {
+        cacheLibros = new CacheTTL<>(cacheMaxEntradas);
+        cacheLibros.registrarMetricas(meterRegistry, "libros");
+    }
+
+    // Consulta directa a libro-service (precio y stock actuales). Si ya hay una consulta del mismo id
+    // en curso se comparte su resultado. Esa consulta empezó antes de que llegara esta petición, así que
+    // puede no reflejar un cambio hecho en libro-service mientras tanto (a lo sumo una llamada de atraso)
+    public LibroDTO obtenerLibro(int id) {
+        CompletableFuture<LibroDTO> propia = new CompletableFuture<>();
+        CompletableFuture<LibroDTO> enCurso = consultasEnCurso.putIfAbsent(id, propia);
+        if (enCurso != null) {
+            meterRegistry.counter("libros.consulta.coalescidas", "libroId", String.valueOf(id)).increment();
+            return esperarConsulta(enCurso);
+        }
+
+        try {
+            LibroDTO libro = proteccion.ejecutar(() -> libroClient.obtenerLibroPorId(id));
+            cacheLibros.guardar(id, libro, cacheTtl);
+            propia.complete(libro);
+            return libro;
+        } catch (RuntimeException e) {
+            propia.completeExceptionally(e);
+            throw e;
+        } finally {
+            consultasEnCurso.remove(id, propia);
+        }
+    }
+
+    private static LibroDTO esperarConsulta(CompletableFuture<LibroDTO> consulta) {
+        try {
+            return consulta.join();
+        } catch (CompletionException e) {
+            // Cada llamador recibe la misma excepción que la consulta original (p. ej. FeignException.NotFound)
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw e;
+        }
+    }
+
+    // Datos de los libros para enriquecer respuestas: usa la caché, pide en lote los que faltan y,
+    // si libro-service falla, usa el último valor conocido aunque haya vencido
+    public Map<Integer, LibroDTO> obtenerLibrosParaMostrar(Collection<Integer> ids) {
+        Map<Integer, LibroDTO> libros = new HashMap<>();
+        Set<Integer> faltantes = new LinkedHashSet<>();
+
+        for (Integer id : ids) {
+            LibroDTO cacheado = cacheLibros.obtener(id);
+            if (cacheado != null) {
+                libros.put(id, cacheado);
+            } else {
+                faltantes.add(id);
+            }
+        }
+
+        if (!faltantes.isEmpty()) {
+            try {
+                libros.putAll(obtenerLibrosPorIds(faltantes));
+            } catch (Exception e) {
+                // en caso de error remoto (o circuito abierto) se usa lo último conocido
+                for (Integer id : faltantes) {
+                    LibroDTO anterior = cacheLibros.obtenerAunqueExpirado(id);
+                    if (anterior != null) {
+                        libros.put(id, anterior);
+                    }
+                }
+            }
+        }
+        return libros;
+    }
+
+    // Descuenta el stock de todas las líneas y devuelve los movimientos enviados. Las líneas se envían tal cual,
+    // sin agrupar por libro, para no mezclar referencias (claves de idempotencia) distintas en un mismo movimiento.
+    // Un error de libro-service se propaga sin envolver: un 4xx (p. ej. 404 por un libro inexistente) es un
+    // rechazo definitivo y un timeout/5xx es ambiguo y se puede reenviar con las mismas referencias.
+    public List<MovimientoStockDTO> restarStockLote(List<MovimientoStockDTO> movimientos) {
+        List<MovimientoStockDTO> lote = List.copyOf(movimientos);
+
+        if (lote.isEmpty()) {
+            return lote;
+        }
+
+        try {
+            if (restarLoteDisponible()) {
+                try {
+                    proteccion.ejecutar(() -> libroClient.restarStockLote(lote));
+                    return lote;
+                } catch (FeignException.MethodNotAllowed e) {
+                    // Sin PUT /restar-stock la ruta cae en GET /{id} y libro-service responde 405 (un 404 es
+                    // un libro inexistente y se propaga): no se vuelve a intentar hasta pasado un tiempo
+                    restarLoteNoSoportadoHastaNanos = System.nanoTime() + reintentarLoteTras.toNanos();
+                }
+            }
+            return restarStockPorLinea(lote);
+        } finally {
+            lote.forEach(m -> invalidar(m.getLibroId()));
+        }
+    }
+
+    // Línea por línea, cada una con su referencia: si una falla, las ya aplicadas no se repiten al reenviar
+    private List<MovimientoStockDTO> restarStockPorLinea(List<MovimientoStockDTO> lote) {
+        for (MovimientoStockDTO movimiento : lote) {
+            proteccion.ejecutar(() -> libroClient.restarStock(movimiento.getLibroId(), movimiento.getCantidad(),
+                    movimiento.getReferencia()));
+        }
+        return lote;
+    }
+
+    private boolean restarLoteDisponible() {
+        long hasta = restarLoteNoSoportadoHastaNanos;
+        return hasta == 0 || hasta - System.nanoTime() <= 0;
+    }
+
+    // Fallo transitorio de libro-service (timeout/conexión o 5xx): cuenta para el circuit breaker y
+    // justifica reintentar; un 4xx es una respuesta definitiva del servicio
+    public static boolean esFallaTransitoria(Throwable e) {
+        return e instanceof RetryableException
+                || (e instanceof FeignException feign && (feign.status() < 0 || feign.status() >= 500));
+    }
+
+    public void invalidar(int id) {
+        cacheLibros.invalidar(id);
+    }
+
+    // Consulta directa en lote; devuelve los libros encontrados indexados por id (los inexistentes no aparecen).
+    // Si libro-service no tiene el endpoint en lote, una consulta concurrente por id distinto.
+    public Map<Integer, LibroDTO> obtenerLibrosPorIds(Collection<Integer> ids) {
+        Set<Integer> distintos = new LinkedHashSet<>(ids);
+        if (distintos.isEmpty()) {
+            return Map.of();
+        }
+
+        if (loteDisponible()) {
+            try {
+                List<LibroDTO> libros = proteccion.ejecutar(() -> libroClient.obtenerLibrosPorIds(distintos));
+                Map<Integer, LibroDTO> porId = libros == null ? Map.of() : libros.stream()
+                        .filter(libro -> libro != null)
+                        .collect(Collectors.toMap(LibroDTO::getId, Function.identity(), (a, b) -> a));
+                porId.forEach((id, libro) -> cacheLibros.guardar(id, libro, cacheTtl));
+                return porId;
+            } catch (FeignException.NotFound | FeignException.MethodNotAllowed | FeignException.BadRequest e) {
+                // libro-service sin el endpoint en lote: no se vuelve a intentar hasta pasado un tiempo
+                loteNoSoportadoHastaNanos = System.nanoTime() + reintentarLoteTras.toNanos();
+            }
+        }
+
+        Map<Integer, LibroDTO> porId = new HashMap<>();
+        consultarLibrosEnParalelo(distintos).forEach((id, consulta) -> {
+            try {
+                LibroDTO libro = esperarConsulta(consulta);
+                if (libro != null) {
+                    porId.put(id, libro);
+                }
+            } catch (FeignException.NotFound e) {
+                // Libro inexistente: no aparece en el resultado
+            }
+        });
+        return porId;
+    }
+
+    private boolean loteDisponible() {
+        long hasta = loteNoSoportadoHastaNanos;
+        return hasta == 0 || hasta - System.nanoTime() <= 0;
+    }
+
+    // Lanza una consulta concurrente por cada libro distinto, en el orden recibido
+    public Map<Integer, CompletableFuture<LibroDTO>> consultarLibrosEnParalelo(Collection<Integer> ids) {
+        Map<Integer, CompletableFuture<LibroDTO>> consultas = new LinkedHashMap<>();
+        for (Integer id : new LinkedHashSet<>(ids)) {
+            consultas.put(id, CompletableFuture.supplyAsync(() -> obtenerLibro(id), librosExecutor));
+        }
+        return consultas;
+    }
+}
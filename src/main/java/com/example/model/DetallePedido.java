@@ -9,6 +9,7 @@ import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
+import jakarta.persistence.TableGenerator;
 import lombok.Data;
 
 @Entity
@@ -17,13 +18,22 @@ import lombok.Data;
 public class DetallePedido {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "detalle_pedido_id")
+    @TableGenerator(name = "detalle_pedido_id", table = "id_generador", pkColumnName = "entidad",
+            valueColumnName = "siguiente_valor", pkColumnValue = "detalle_pedido", allocationSize = 50)
     private int id;
 
     private int libroId;
     private int cantidad;
     private Double precioUnitario;
 
+    // Foto del libro al momento de la compra: las lecturas del pedido no dependen de libro-service
+    private String tituloLibro;
+    private String autorLibro;
+    private String categoriaLibro;
+    private Double precioLista;
+    private Double descuento;
+
     @ManyToOne
     @JoinColumn(name = "pedido_id")
     @JsonBackReference
@@ -0,0 +1,44 @@
+package com.example.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.TableGenerator;
+import lombok.Data;
+
+// Descuento de stock pendiente de enviar a libro-service. Se escribe en la misma
+// transacción que finaliza el pedido y lo despacha OutboxStockDispatcher.
+@Entity
+@Table(indexes = @Index(name = "idx_outbox_stock_estado", columnList = "estado, proximoIntento"))
+@Data
+public class OutboxStock {
+
+    public static final String PENDIENTE = "PENDIENTE";
+    public static final String EN_PROCESO = "EN_PROCESO";
+    public static final String ENVIADO = "ENVIADO";
+    public static final String FALLIDO = "FALLIDO";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "outbox_stock_id")
+    @TableGenerator(name = "outbox_stock_id", table = "id_generador", pkColumnName = "entidad",
+            valueColumnName = "siguiente_valor", pkColumnValue = "outbox_stock", allocationSize = 50)
+    private int id;
+
+    private int pedidoId;
+    private int libroId;
+    private int cantidad;
+
+    private String estado;
+    private int intentos;
+    private LocalDateTime creado;
+    private LocalDateTime proximoIntento;
+
+    @Column(length = 500)
+    private String ultimoError;
+}
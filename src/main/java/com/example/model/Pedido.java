@@ -1,33 +1,67 @@
 package com.example.model;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.hibernate.annotations.BatchSize;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonManagedReference;
 
 import jakarta.persistence.CascadeType;
+import jakarta.persistence.CollectionTable;
+import jakarta.persistence.Column;
+import jakarta.persistence.ElementCollection;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.Table;
+import jakarta.persistence.TableGenerator;
+import jakarta.persistence.UniqueConstraint;
+import jakarta.persistence.Version;
 import lombok.Data;
 
 @Entity
-@Table
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_pedido_cliente_idempotencia",
+        columnNames = { "clienteId", "claveIdempotencia" }))
 @Data
 public class Pedido {
 
+    // Ids por bloques de 50 desde id_generador (a diferencia de IDENTITY permite inserts en lote)
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "pedido_id")
+    @TableGenerator(name = "pedido_id", table = "id_generador", pkColumnName = "entidad",
+            valueColumnName = "siguiente_valor", pkColumnValue = "pedido", allocationSize = 50)
     private int id;
     private int clienteId;
     private String estado;
     private LocalDateTime fecha;
     private Double total;
 
+    // Bloqueo optimista: una escritura con una versión ya superada falla en lugar de pisar la otra
+    @Version
+    @JsonIgnore
+    private long version;
+
+    // Idempotency-Key enviada al generar el pedido; única por cliente (null si no se envió)
+    @Column(length = 100)
+    @JsonIgnore
+    private String claveIdempotencia;
+
+    // En listados grandes los detalles se cargan de 50 pedidos por consulta en vez de uno por pedido
     @OneToMany(mappedBy = "pedido", cascade = CascadeType.ALL)
+    @BatchSize(size = 50)
     @JsonManagedReference
     private List<DetallePedido> detalles;
+
+    // Motivos de rechazo de un pedido procesado en segundo plano (estado RECHAZADO)
+    @ElementCollection
+    @CollectionTable(name = "pedido_error", joinColumns = @JoinColumn(name = "pedido_id"))
+    @Column(name = "mensaje", length = 500)
+    @JsonIgnore
+    private List<String> errores = new ArrayList<>();
 }
\ No newline at end of file
@@ -0,0 +1,43 @@
+package com.example.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.TableGenerator;
+import lombok.Data;
+
+// Unidades de un libro retenidas para un pedido PENDIENTE hasta expiraEn. Mientras está ACTIVA
+// o CONSUMIDA (pedido finalizado, descuento aún sin enviar a libro-service) cuenta como stock
+// no disponible para otros pedidos; pasa a DESCONTADA cuando el outbox envía el descuento.
+@Entity
+@Table(indexes = {
+        @Index(name = "idx_reserva_stock_estado", columnList = "estado, expiraEn"),
+        @Index(name = "idx_reserva_stock_pedido", columnList = "pedidoId")
+})
+@Data
+public class ReservaStock {
+
+    public static final String ACTIVA = "ACTIVA";
+    public static final String LIBERADA = "LIBERADA";
+    public static final String CONSUMIDA = "CONSUMIDA";
+    public static final String DESCONTADA = "DESCONTADA";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "reserva_stock_id")
+    @TableGenerator(name = "reserva_stock_id", table = "id_generador", pkColumnName = "entidad",
+            valueColumnName = "siguiente_valor", pkColumnValue = "reserva_stock", allocationSize = 50)
+    private int id;
+
+    private int pedidoId;
+    private int libroId;
+    private int cantidad;
+
+    private String estado;
+    private LocalDateTime creada;
+    private LocalDateTime expiraEn;
+}
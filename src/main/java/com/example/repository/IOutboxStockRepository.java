@@ -0,0 +1,33 @@
+package com.example.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.example.model.OutboxStock;
+
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+
+@Repository
+public interface IOutboxStockRepository extends JpaRepository<OutboxStock, Integer> {
+
+    // Entradas listas para despachar (pendientes o en proceso con el plazo vencido).
+    // SKIP LOCKED (timeout -2) permite varios despachadores sin tomar la misma fila.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("select o from OutboxStock o where o.estado in ('PENDIENTE', 'EN_PROCESO') "
+            + "and o.proximoIntento <= :ahora order by o.id")
+    List<OutboxStock> findListasParaDespachar(@Param("ahora") LocalDateTime ahora, Limit limit);
+
+    long countByPedidoIdAndLibroIdAndEstadoIn(int pedidoId, int libroId, Collection<String> estados);
+
+}
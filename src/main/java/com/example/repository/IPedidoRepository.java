@@ -1,15 +1,69 @@
 package com.example.repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.example.model.Pedido;
 
+import jakarta.persistence.QueryHint;
+
 @Repository
 public interface IPedidoRepository extends JpaRepository<Pedido, Integer> {
 
     List<Pedido> findByClienteId(int clienteId);
 
+    // Pedido con sus detalles en una sola consulta (join)
+    @EntityGraph(attributePaths = "detalles")
+    Optional<Pedido> findWithDetallesById(int id);
+
+    @EntityGraph(attributePaths = "detalles")
+    List<Pedido> findWithDetallesByClienteId(int clienteId);
+
+    @EntityGraph(attributePaths = "detalles")
+    Optional<Pedido> findWithDetallesByClienteIdAndClaveIdempotencia(int clienteId, String claveIdempotencia);
+
+    // Las páginas se resuelven en dos pasos: primero los ids paginados en la BD
+    // y luego los pedidos con fetch join (paginar sobre un fetch join se haría en memoria)
+    @Query(value = "select p.id from Pedido p", countQuery = "select count(p) from Pedido p")
+    Page<Integer> findIds(Pageable pageable);
+
+    @Query("select e from Pedido p join p.errores e where p.id = :id")
+    List<String> findErroresById(@Param("id") int id);
+
+    // Pedidos en un estado desde antes de cierta fecha (p. ej. RECIBIDO sin procesar)
+    @Query("select p.id from Pedido p where p.estado = :estado and p.fecha < :limite order by p.id")
+    List<Integer> findIdsByEstadoAnteriorA(@Param("estado") String estado, @Param("limite") LocalDateTime limite,
+            Limit limit);
+
+    // Paginación por cursor: ids siguientes al último entregado
+    @Query("select p.id from Pedido p where p.id > :afterId order by p.id")
+    List<Integer> findIdsAfter(@Param("afterId") int afterId, Limit limit);
+
+    @Query("select distinct p from Pedido p left join fetch p.detalles where p.id in :ids order by p.id")
+    List<Pedido> findWithDetallesByIdIn(@Param("ids") Collection<Integer> ids);
+
+    // Recorre todos los pedidos con un cursor del lado del servidor (requiere useCursorFetch=true en MySQL).
+    // Los detalles vienen en la misma consulta: ordenar por id deja juntas las filas de cada pedido y
+    // Hibernate entrega cada uno una sola vez, ya completo. Debe consumirse dentro de una transacción
+    // y cerrarse al terminar.
+    @Query("select p from Pedido p left join fetch p.detalles order by p.id")
+    @QueryHints({
+            @QueryHint(name = "org.hibernate.fetchSize", value = "500"),
+            @QueryHint(name = "org.hibernate.readOnly", value = "true")
+    })
+    Stream<Pedido> streamAllOrderById();
+
 }
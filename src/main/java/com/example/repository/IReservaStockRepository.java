@@ -0,0 +1,45 @@
+package com.example.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.example.model.ReservaStock;
+
+@Repository
+public interface IReservaStockRepository extends JpaRepository<ReservaStock, Integer> {
+
+    interface CantidadPorLibro {
+        Integer getLibroId();
+
+        Long getCantidad();
+    }
+
+    List<ReservaStock> findByPedidoIdAndEstado(int pedidoId, String estado);
+
+    @Query("select r from ReservaStock r where r.estado = 'ACTIVA' and r.expiraEn <= :ahora order by r.id")
+    List<ReservaStock> findActivasVencidas(@Param("ahora") LocalDateTime ahora, Limit limit);
+
+    // Total retenido por libro (ACTIVA y CONSUMIDA); con esto se reconstruyen los contadores en memoria al arrancar
+    @Query("select r.libroId as libroId, sum(r.cantidad) as cantidad from ReservaStock r "
+            + "where r.estado in ('ACTIVA', 'CONSUMIDA') group by r.libroId")
+    List<CantidadPorLibro> sumarRetenidasPorLibro();
+
+    // Solo cambia la reserva si sigue en el estado esperado: si el barrido y la finalización compiten
+    // por la misma fila, únicamente uno de los dos la mueve (y la descuenta del contador)
+    @Modifying
+    @Query("update ReservaStock r set r.estado = :hacia where r.id = :id and r.estado = :desde")
+    int cambiarEstado(@Param("id") int id, @Param("desde") String desde, @Param("hacia") String hacia);
+
+    // Deja menos unidades en una reserva que sigue ACTIVA (pedido editado); mismo criterio que cambiarEstado
+    @Modifying
+    @Query("update ReservaStock r set r.cantidad = :cantidad where r.id = :id and r.estado = 'ACTIVA'")
+    int reducirActiva(@Param("id") int id, @Param("cantidad") int cantidad);
+
+}
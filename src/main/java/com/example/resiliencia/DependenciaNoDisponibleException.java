@@ -0,0 +1,9 @@
+package com.example.resiliencia;
+
+// La llamada no se hizo: circuito abierto o límite de llamadas concurrentes alcanzado
+public class DependenciaNoDisponibleException extends RuntimeException {
+
+    public DependenciaNoDisponibleException(String mensaje) {
+        super(mensaje);
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.resiliencia;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// Protección para las llamadas a un servicio remoto:
+// - bulkhead: como máximo maxConcurrentes llamadas a la vez; si no hay cupo tras esperaCupo se falla
+// - circuit breaker: tras umbralFallos fallos seguidos deja de llamar durante tiempoAbierto
+//   y luego deja pasar una sola llamada de prueba antes de cerrarse de nuevo. Solo el resultado de esa
+//   prueba cierra o reabre el circuito: una llamada lenta que empezó antes de abrirse no lo cambia.
+public class ProteccionRemota {
+
+    private enum Estado {
+        CERRADO, ABIERTO, SEMIABIERTO
+    }
+
+    private final String nombre;
+    private final Semaphore cupos;
+    private final Duration esperaCupo;
+    private final int umbralFallos;
+    private final Duration tiempoAbierto;
+    private final Predicate<RuntimeException> esFalloRemoto;
+    private final LongSupplier relojNanos;
+
+    private Estado estado = Estado.CERRADO;
+    private int fallosSeguidos;
+    private long abiertoHastaNanos;
+    private boolean pruebaEnCurso;
+    // Aumenta cada vez que el circuito se abre; los resultados de llamadas de una apertura anterior se ignoran
+    private long apertura;
+
+    public ProteccionRemota(String nombre, int maxConcurrentes, Duration esperaCupo,
+            int umbralFallos, Duration tiempoAbierto, Predicate<RuntimeException> esFalloRemoto) {
+        this(nombre, maxConcurrentes, esperaCupo, umbralFallos, tiempoAbierto, esFalloRemoto, System::nanoTime);
+    }
+
+    // Reloj inyectable para las pruebas
+    ProteccionRemota(String nombre, int maxConcurrentes, Duration esperaCupo, int umbralFallos,
+            Duration tiempoAbierto, Predicate<RuntimeException> esFalloRemoto, LongSupplier relojNanos) {
+        this.nombre = nombre;
+        this.cupos = new Semaphore(maxConcurrentes);
+        this.esperaCupo = esperaCupo;
+        this.umbralFallos = umbralFallos;
+        this.tiempoAbierto = tiempoAbierto;
+        this.esFalloRemoto = esFalloRemoto;
+        this.relojNanos = relojNanos;
+    }
+
+    // Permiso de una llamada: si es la prueba del circuito semiabierto y en qué apertura empezó
+    private record Permiso(boolean prueba, long apertura) {
+    }
+
+    public <T> T ejecutar(Supplier<T> llamada) {
+        Permiso permiso = permitirLlamada();
+        if (permiso == null) {
+            throw new DependenciaNoDisponibleException(nombre + " no disponible (circuito abierto)");
+        }
+
+        if (!adquirirCupo()) {
+            if (permiso.prueba()) {
+                liberarPrueba();
+            }
+            throw new DependenciaNoDisponibleException(nombre + " saturado (límite de llamadas concurrentes)");
+        }
+
+        try {
+            T resultado = llamada.get();
+            registrarExito(permiso);
+            return resultado;
+        } catch (RuntimeException e) {
+            // Los errores de negocio (p. ej. 404) no indican que el servicio esté caído
+            if (esFalloRemoto.test(e)) {
+                registrarFallo(permiso);
+            } else {
+                registrarExito(permiso);
+            }
+            throw e;
+        } catch (Error e) {
+            // Un Error (p. ej. StackOverflowError) cuenta como fallo: la prueba no puede quedar en curso para siempre
+            registrarFallo(permiso);
+            throw e;
+        } finally {
+            cupos.release();
+        }
+    }
+
+    // null si la llamada no puede hacerse
+    private synchronized Permiso permitirLlamada() {
+        if (estado == Estado.CERRADO) {
+            return new Permiso(false, apertura);
+        }
+        if (estado == Estado.ABIERTO && abiertoHastaNanos - relojNanos.getAsLong() <= 0) {
+            estado = Estado.SEMIABIERTO;
+        }
+        if (estado == Estado.SEMIABIERTO && !pruebaEnCurso) {
+            pruebaEnCurso = true;
+            return new Permiso(true, apertura);
+        }
+        return null;
+    }
+
+    private boolean adquirirCupo() {
+        try {
+            return cupos.tryAcquire(esperaCupo.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private synchronized void liberarPrueba() {
+        pruebaEnCurso = false;
+    }
+
+    private synchronized void registrarExito(Permiso permiso) {
+        if (permiso.prueba()) {
+            estado = Estado.CERRADO;
+            fallosSeguidos = 0;
+            pruebaEnCurso = false;
+        } else if (estado == Estado.CERRADO && permiso.apertura() == apertura) {
+            fallosSeguidos = 0;
+        }
+    }
+
+    private synchronized void registrarFallo(Permiso permiso) {
+        if (permiso.prueba()) {
+            pruebaEnCurso = false;
+            abrir();
+        } else if (estado == Estado.CERRADO && permiso.apertura() == apertura && ++fallosSeguidos >= umbralFallos) {
+            abrir();
+        }
+    }
+
+    private void abrir() {
+        estado = Estado.ABIERTO;
+        abiertoHastaNanos = relojNanos.getAsLong() + tiempoAbierto.toNanos();
+        apertura++;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.security;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import com.example.soap.AuthService;
+import com.kirbook.auth.ValidateTokenResponse;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+// Valida el token una sola vez por petición para los endpoints anotados con @RequiereRol
+// y deja el usuario en UsuarioActual. El tiempo de validación se publica como "pedidos.autenticacion".
+@Component
+public class AutenticacionInterceptor implements HandlerInterceptor {
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private UsuarioActual usuarioActual;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws Exception {
+        if (!(handler instanceof HandlerMethod metodo)) {
+            return true;
+        }
+
+        RequiereRol requiereRol = AnnotatedElementUtils.findMergedAnnotation(metodo.getMethod(), RequiereRol.class);
+        if (requiereRol == null) {
+            requiereRol = AnnotatedElementUtils.findMergedAnnotation(metodo.getBeanType(), RequiereRol.class);
+        }
+        if (requiereRol == null) {
+            return true;
+        }
+
+        // --- 1️⃣ Validar formato del token ---
+        String tokenHeader = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (tokenHeader == null || !tokenHeader.startsWith("Bearer ")) {
+            return rechazar(response, HttpStatus.UNAUTHORIZED, "Token no proporcionado o formato inválido");
+        }
+
+        // --- 2️⃣ Validar el token (caché / JWT local / SOAP) ---
+        ValidateTokenResponse resp = validar(tokenHeader.substring(7));
+        // Sin id no se puede atribuir el pedido (ni aislar sus claves de idempotencia)
+        if (resp == null || !resp.isValid() || resp.getId() == null) {
+            return rechazar(response, HttpStatus.UNAUTHORIZED, "Token inválido o expirado");
+        }
+
+        // --- 3️⃣ Verificar el rol ---
+        String rol = resp.getRol();
+        if (rol == null || Arrays.stream(requiereRol.value()).noneMatch(rol::equalsIgnoreCase)) {
+            return rechazar(response, HttpStatus.FORBIDDEN, requiereRol.mensaje());
+        }
+
+        usuarioActual.setUsuario(resp);
+        return true;
+    }
+
+    private ValidateTokenResponse validar(String token) {
+        Timer.Sample muestra = Timer.start(meterRegistry);
+        String resultado = "error";
+        try {
+            ValidateTokenResponse resp = authService.validar(token);
+            resultado = resp != null && resp.isValid() ? "valido" : "invalido";
+            return resp;
+        } finally {
+            muestra.stop(meterRegistry.timer("pedidos.autenticacion", "resultado", resultado));
+        }
+    }
+
+    private static boolean rechazar(HttpServletResponse response, HttpStatus status, String mensaje)
+            throws Exception {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(mensaje);
+        return false;
+    }
+}
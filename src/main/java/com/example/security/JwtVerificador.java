@@ -0,0 +1,198 @@
+package com.example.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kirbook.auth.ValidateTokenResponse;
+
+import jakarta.annotation.PostConstruct;
+
+// Verificación local de JWT (firma y expiración) contra las claves configuradas, sin llamar a auth-service.
+// Soporta HS256 (secretos compartidos) y RS256 (claves públicas X.509 en Base64).
+@Component
+public class JwtVerificador {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${auth.jwt.local.habilitado:false}")
+    private boolean habilitado;
+
+    @Value("${auth.jwt.hmac-secretos:}")
+    private List<String> secretosHmac;
+
+    @Value("${auth.jwt.rsa-claves-publicas:}")
+    private List<String> clavesRsaBase64;
+
+    @Value("${auth.jwt.claim.id:id}")
+    private String claimId;
+
+    @Value("${auth.jwt.claim.rol:rol}")
+    private String claimRol;
+
+    @Value("${auth.jwt.claim.username:sub}")
+    private String claimUsername;
+
+    // Tolerancia para diferencias de reloj entre servicios
+    @Value("${auth.jwt.margen-reloj-segundos:30}")
+    private long margenRelojSegundos;
+
+    private final List<byte[]> clavesHmac = new ArrayList<>();
+    private final List<PublicKey> clavesRsa = new ArrayList<>();
+
+    @PostConstruct
+    void cargarClaves() throws GeneralSecurityException {
+        for (String secreto : secretosHmac) {
+            if (!secreto.isBlank()) {
+                clavesHmac.add(secreto.trim().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        KeyFactory rsa = KeyFactory.getInstance("RSA");
+        for (String clave : clavesRsaBase64) {
+            if (!clave.isBlank()) {
+                byte[] der = Base64.getMimeDecoder().decode(clave.trim());
+                clavesRsa.add(rsa.generatePublic(new X509EncodedKeySpec(der)));
+            }
+        }
+        if (habilitado && clavesHmac.isEmpty() && clavesRsa.isEmpty()) {
+            throw new IllegalStateException("auth.jwt.local.habilitado=true requiere al menos una clave configurada");
+        }
+    }
+
+    public boolean isHabilitado() {
+        return habilitado;
+    }
+
+    // Devuelve la validación local (válida o no), o null si el token no puede verificarse aquí
+    // (formato desconocido, algoritmo sin clave configurada o sin claims de id/rol) y hay que
+    // preguntar a auth-service.
+    public ValidateTokenResponse verificar(String token) {
+        String[] partes = token.split("\\.");
+        if (partes.length != 3) {
+            return null;
+        }
+
+        JsonNode cabecera;
+        JsonNode claims;
+        byte[] firma;
+        try {
+            Base64.Decoder base64 = Base64.getUrlDecoder();
+            cabecera = objectMapper.readTree(base64.decode(partes[0]));
+            claims = objectMapper.readTree(base64.decode(partes[1]));
+            firma = base64.decode(partes[2]);
+        } catch (Exception e) {
+            return null;
+        }
+
+        byte[] contenido = (partes[0] + "." + partes[1]).getBytes(StandardCharsets.US_ASCII);
+        Boolean firmaValida = switch (cabecera.path("alg").asText()) {
+            case "HS256" -> clavesHmac.isEmpty() ? null : firmaHmacValida(contenido, firma);
+            case "RS256" -> clavesRsa.isEmpty() ? null : firmaRsaValida(contenido, firma);
+            default -> null;
+        };
+
+        if (firmaValida == null) {
+            return null;
+        }
+        if (!firmaValida) {
+            return invalido("Firma del token inválida");
+        }
+
+        long ahora = Instant.now().getEpochSecond();
+        if (!claims.hasNonNull("exp") || claims.get("exp").asLong() + margenRelojSegundos < ahora) {
+            return invalido("Token expirado");
+        }
+        if (claims.hasNonNull("nbf") && claims.get("nbf").asLong() - margenRelojSegundos > ahora) {
+            return invalido("Token aún no válido");
+        }
+
+        // Sin id o rol no hay usuario con el que autorizar (ni espacio de claves de idempotencia propio):
+        // que lo resuelva auth-service
+        JsonNode id = claims.get(claimId);
+        String rol = texto(claims, claimRol);
+        if (id == null || !id.asText().matches("\\d+") || rol == null || rol.isBlank()) {
+            return null;
+        }
+
+        ValidateTokenResponse resp = new ValidateTokenResponse();
+        resp.setValid(true);
+        resp.setId(id.asLong());
+        resp.setRol(rol);
+        resp.setUsername(texto(claims, claimUsername));
+        resp.setEmail(texto(claims, "email"));
+        resp.setNombre(texto(claims, "nombre"));
+        resp.setApellido(texto(claims, "apellido"));
+        return resp;
+    }
+
+    // Segundos de vida que le quedan al token según su claim exp (0 si no se puede leer)
+    public long segundosRestantes(String token) {
+        try {
+            String[] partes = token.split("\\.");
+            JsonNode claims = objectMapper.readTree(Base64.getUrlDecoder().decode(partes[1]));
+            return Math.max(0, claims.path("exp").asLong() - Instant.now().getEpochSecond());
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private boolean firmaHmacValida(byte[] contenido, byte[] firma) {
+        try {
+            for (byte[] clave : clavesHmac) {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(clave, "HmacSHA256"));
+                if (MessageDigest.isEqual(mac.doFinal(contenido), firma)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    private boolean firmaRsaValida(byte[] contenido, byte[] firma) {
+        try {
+            for (PublicKey clave : clavesRsa) {
+                Signature verificador = Signature.getInstance("SHA256withRSA");
+                verificador.initVerify(clave);
+                verificador.update(contenido);
+                if (verificador.verify(firma)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    private static String texto(JsonNode claims, String nombre) {
+        return claims.hasNonNull(nombre) ? claims.get(nombre).asText() : null;
+    }
+
+    private static ValidateTokenResponse invalido(String mensaje) {
+        ValidateTokenResponse resp = new ValidateTokenResponse();
+        resp.setValid(false);
+        resp.setMessage(mensaje);
+        return resp;
+    }
+}
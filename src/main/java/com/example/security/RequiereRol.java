@@ -0,0 +1,17 @@
+package com.example.security;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Marca un endpoint como autenticado: AutenticacionInterceptor valida el token una vez por petición
+// y responde 403 con el mensaje indicado si el rol del usuario no es ninguno de los permitidos.
+@Target({ ElementType.METHOD, ElementType.TYPE })
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RequiereRol {
+
+    String[] value();
+
+    String mensaje() default "Acceso denegado. No tiene permisos para esta operación.";
+}
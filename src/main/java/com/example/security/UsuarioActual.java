@@ -0,0 +1,25 @@
+package com.example.security;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.annotation.RequestScope;
+
+import com.kirbook.auth.ValidateTokenResponse;
+
+// Usuario autenticado de la petición en curso; lo rellena AutenticacionInterceptor
+@Component
+@RequestScope
+public class UsuarioActual {
+
+    private ValidateTokenResponse usuario;
+
+    public ValidateTokenResponse getUsuario() {
+        if (usuario == null) {
+            throw new IllegalStateException("La petición no pasó por la autenticación (falta @RequiereRol)");
+        }
+        return usuario;
+    }
+
+    public void setUsuario(ValidateTokenResponse usuario) {
+        this.usuario = usuario;
+    }
+}
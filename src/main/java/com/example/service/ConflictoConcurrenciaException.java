@@ -0,0 +1,9 @@
+package com.example.service;
+
+// Otro proceso modificó el pedido al mismo tiempo y los reintentos se agotaron (se responde 409)
+public class ConflictoConcurrenciaException extends RuntimeException {
+
+    public ConflictoConcurrenciaException(String mensaje, Throwable causa) {
+        super(mensaje, causa);
+    }
+}
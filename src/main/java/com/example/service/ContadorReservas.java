@@ -0,0 +1,104 @@
+package com.example.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.example.DTO.LibroDTO;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// Unidades retenidas por libro en memoria. Comprobar y retener un pedido se hace bajo los candados
+// de las franjas de sus libros (libroId módulo el número de franjas), tomados siempre en orden
+// creciente para que dos pedidos no se bloqueen mutuamente. Solo esperan entre sí los pedidos que
+// comparten franja; el resto corre en paralelo. Soltar unidades no necesita candado.
+public class ContadorReservas {
+
+    private final ReentrantLock[] franjas;
+    private final ConcurrentMap<Integer, AtomicInteger> retenidoPorLibro = new ConcurrentHashMap<>();
+    private final Timer espera;
+
+    public ContadorReservas(int numeroFranjas, MeterRegistry meterRegistry) {
+        franjas = new ReentrantLock[numeroFranjas];
+        for (int i = 0; i < numeroFranjas; i++) {
+            franjas[i] = new ReentrantLock();
+        }
+        espera = meterRegistry.timer("stock.reserva.espera");
+    }
+
+    public int retenido(int libroId) {
+        AtomicInteger retenido = retenidoPorLibro.get(libroId);
+        return retenido == null ? 0 : retenido.get();
+    }
+
+    public int librosConReservas() {
+        return retenidoPorLibro.size();
+    }
+
+    // Retiene todas las cantidades o ninguna y devuelve los errores por libro (vacío si se retuvo).
+    // libros trae el stock actual de cada libro.
+    public List<String> retener(Map<Integer, Integer> cantidades, Map<Integer, LibroDTO> libros) {
+        List<ReentrantLock> candados = candados(cantidades.keySet());
+
+        long inicio = System.nanoTime();
+        candados.forEach(ReentrantLock::lock);
+        espera.record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+
+        try {
+            List<String> errores = new ArrayList<>();
+            for (Map.Entry<Integer, Integer> linea : new TreeMap<>(cantidades).entrySet()) {
+                LibroDTO libro = libros.get(linea.getKey());
+                int stock = libro.getStock() == null ? 0 : libro.getStock();
+                int disponible = stock - retenido(linea.getKey());
+                if (linea.getValue() > disponible) {
+                    errores.add("Stock insuficiente para el libro '" + libro.getTitulo() +
+                            "'. Stock disponible: " + Math.max(disponible, 0));
+                }
+            }
+
+            if (errores.isEmpty()) {
+                cantidades.forEach((libroId, cantidad) -> contador(libroId).addAndGet(cantidad));
+            }
+            return errores;
+        } finally {
+            for (int i = candados.size() - 1; i >= 0; i--) {
+                candados.get(i).unlock();
+            }
+        }
+    }
+
+    // Suma unidades ya retenidas en la BD (al reconstruir el contador)
+    public void cargar(int libroId, int cantidad) {
+        contador(libroId).addAndGet(cantidad);
+    }
+
+    public void soltar(Map<Integer, Integer> cantidades) {
+        cantidades.forEach((libroId, cantidad) -> {
+            AtomicInteger retenido = retenidoPorLibro.get(libroId);
+            if (retenido != null) {
+                retenido.updateAndGet(actual -> Math.max(actual - cantidad, 0));
+            }
+        });
+    }
+
+    private AtomicInteger contador(int libroId) {
+        return retenidoPorLibro.computeIfAbsent(libroId, id -> new AtomicInteger());
+    }
+
+    private List<ReentrantLock> candados(Collection<Integer> libroIds) {
+        return libroIds.stream()
+                .mapToInt(libroId -> Math.floorMod(libroId, franjas.length))
+                .distinct()
+                .sorted()
+                .mapToObj(franja -> franjas[franja])
+                .toList();
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.DTO.MovimientoStockDTO;
+import com.example.feign.LibroService;
+import com.example.model.OutboxStock;
+import com.example.repository.IOutboxStockRepository;
+
+import feign.FeignException;
+
+import jakarta.annotation.PostConstruct;
+
+// Drena la tabla OutboxStock: agrupa los descuentos pendientes en un request en lote
+// a libro-service, reintenta con backoff exponencial y marca las entradas enviadas.
+// Las llamadas remotas se hacen fuera de cualquier transacción.
+@Component
+public class OutboxStockDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboxStockDispatcher.class);
+
+    @Autowired
+    private IOutboxStockRepository outboxRepository;
+
+    @Autowired
+    private LibroService libroService;
+
+    @Autowired
+    private ReservaStockService reservaStockService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${outbox.stock.tamanio-lote:200}")
+    private int tamanioLote;
+
+    @Value("${outbox.stock.max-intentos:10}")
+    private int maxIntentos;
+
+    @Value("${outbox.stock.backoff-inicial:1s}")
+    private Duration backoffInicial;
+
+    @Value("${outbox.stock.backoff-maximo:5m}")
+    private Duration backoffMaximo;
+
+    // Tiempo tras el cual una entrada EN_PROCESO (p. ej. por una caída) vuelve a despacharse
+    @Value("${outbox.stock.plazo-proceso:2m}")
+    private Duration plazoProceso;
+
+    private TransactionTemplate transaccion;
+
+    @PostConstruct
+    void iniciar() {
+        transaccion = new TransactionTemplate(transactionManager);
+    }
+
+    @Scheduled(fixedDelayString = "${outbox.stock.intervalo-ms:2000}")
+    public void despachar() {
+        List<OutboxStock> lote = transaccion.execute(status -> reclamar());
+        if (lote == null || lote.isEmpty()) {
+            return;
+        }
+
+        try {
+            libroService.restarStockLote(movimientos(lote));
+            transaccion.executeWithoutResult(status -> marcarEnviadas(lote));
+        } catch (RuntimeException e) {
+            // Solo si libro-service rechazó el lote (no aplicó nada) se separa por pedido, para que un
+            // pedido con problemas no bloquee a los demás. Ante un fallo ambiguo (timeout, 5xx) el lote
+            // pudo aplicarse: se reintenta entero con las mismas referencias en lugar de repartirlo.
+            if (!rechazadoPorLibroService(e) || lote.stream().map(OutboxStock::getPedidoId).distinct().count() == 1) {
+                transaccion.executeWithoutResult(status -> programarReintento(lote, e));
+                return;
+            }
+            despacharPorPedido(lote);
+        }
+    }
+
+    private static boolean rechazadoPorLibroService(RuntimeException e) {
+        return e instanceof FeignException f && f.status() >= 400 && f.status() < 500;
+    }
+
+    private void despacharPorPedido(List<OutboxStock> lote) {
+        Map<Integer, List<OutboxStock>> porPedido = lote.stream()
+                .collect(Collectors.groupingBy(OutboxStock::getPedidoId));
+
+        porPedido.values().forEach(entradas -> {
+            try {
+                libroService.restarStockLote(movimientos(entradas));
+                transaccion.executeWithoutResult(status -> marcarEnviadas(entradas));
+            } catch (RuntimeException e) {
+                transaccion.executeWithoutResult(status -> programarReintento(entradas, e));
+            }
+        });
+    }
+
+    private List<OutboxStock> reclamar() {
+        LocalDateTime ahora = LocalDateTime.now();
+        List<OutboxStock> lote = outboxRepository.findListasParaDespachar(ahora, Limit.of(tamanioLote));
+        lote.forEach(entrada -> {
+            entrada.setEstado(OutboxStock.EN_PROCESO);
+            entrada.setProximoIntento(ahora.plus(plazoProceso));
+        });
+        return new ArrayList<>(outboxRepository.saveAll(lote));
+    }
+
+    // Además libera las reservas CONSUMIDA cuyo descuento ya está completo en libro-service
+    // (ninguna otra entrada del mismo pedido y libro sigue pendiente)
+    private void marcarEnviadas(List<OutboxStock> entradas) {
+        entradas.forEach(entrada -> {
+            entrada.setEstado(OutboxStock.ENVIADO);
+            entrada.setIntentos(entrada.getIntentos() + 1);
+            entrada.setUltimoError(null);
+        });
+        outboxRepository.saveAll(entradas);
+
+        entradas.stream()
+                .map(entrada -> Map.entry(entrada.getPedidoId(), entrada.getLibroId()))
+                .distinct()
+                .filter(linea -> outboxRepository.countByPedidoIdAndLibroIdAndEstadoIn(linea.getKey(),
+                        linea.getValue(), List.of(OutboxStock.PENDIENTE, OutboxStock.EN_PROCESO)) == 0)
+                .forEach(linea -> reservaStockService.descontar(linea.getKey(), linea.getValue()));
+    }
+
+    private void programarReintento(List<OutboxStock> entradas, RuntimeException error) {
+        LocalDateTime ahora = LocalDateTime.now();
+        String mensaje = error.getMessage() == null ? error.getClass().getSimpleName() : error.getMessage();
+
+        entradas.forEach(entrada -> {
+            int intentos = entrada.getIntentos() + 1;
+            entrada.setIntentos(intentos);
+            entrada.setUltimoError(mensaje.length() > 500 ? mensaje.substring(0, 500) : mensaje);
+
+            if (intentos >= maxIntentos) {
+                // La reserva CONSUMIDA se mantiene: libro-service sigue contando unas unidades ya vendidas
+                entrada.setEstado(OutboxStock.FALLIDO);
+                log.error("Descuento de stock abandonado tras {} intentos: pedido {} libro {} cantidad {}",
+                        intentos, entrada.getPedidoId(), entrada.getLibroId(), entrada.getCantidad());
+            } else {
+                entrada.setEstado(OutboxStock.PENDIENTE);
+                entrada.setProximoIntento(ahora.plus(backoff(intentos)));
+            }
+        });
+        outboxRepository.saveAll(entradas);
+    }
+
+    // 1s, 2s, 4s, ... hasta backoffMaximo
+    private Duration backoff(int intentos) {
+        Duration espera = backoffInicial.multipliedBy(1L << Math.min(intentos - 1, 20));
+        return espera.compareTo(backoffMaximo) > 0 ? backoffMaximo : espera;
+    }
+
+    private static List<MovimientoStockDTO> movimientos(List<OutboxStock> entradas) {
+        return entradas.stream()
+                .map(entrada -> new MovimientoStockDTO(entrada.getLibroId(), entrada.getCantidad(),
+                        "outbox-" + entrada.getId()))
+                .toList();
+    }
+}
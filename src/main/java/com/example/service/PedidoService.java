@@ -1,36 +1,75 @@
 package com.example.service;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.example.DTO.ClienteSOAPDTO;
+import com.example.DTO.DetallePedidoDTO;
 import com.example.DTO.DetallePedidoRequestDTO;
+import com.example.DTO.EstadoPedidoDTO;
 import com.example.DTO.ItemPedidoResponseDTO;
 import com.example.DTO.LibroDTO;
+import com.example.DTO.PaginaDTO;
 import com.example.DTO.PedidoDTO;
 import com.example.DTO.PedidoRequestDTO;
 import com.example.DTO.PedidoResponseDTO;
-import com.example.feign.LibroClient;
+import com.example.cache.CacheTTL;
+import com.example.feign.LibroService;
 import com.example.model.DetallePedido;
+import com.example.model.OutboxStock;
 import com.example.model.Pedido;
 import com.example.repository.IDetallePedidoRepository;
+import com.example.repository.IOutboxStockRepository;
 import com.example.repository.IPedidoRepository;
+import com.example.resiliencia.DependenciaNoDisponibleException;
 import com.example.soap.AuthService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.kirbook.auth.GetUserByIdResponse;
 import com.kirbook.auth.ValidateTokenResponse;
 
-import jakarta.transaction.Transactional;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
 
 @Service
 public class PedidoService {
@@ -41,44 +80,132 @@ public class PedidoService {
     @Autowired
     private IDetallePedidoRepository detalleRepo;
 
+    @Autowired
+    private IOutboxStockRepository outboxRepository;
+
     @Autowired
     private AuthService authService;
 
     @Autowired
-    private LibroClient libroClient;
+    private LibroService libroService;
+
+    @Autowired
+    private ReservaStockService reservaStockService;
+
+    @Autowired
+    private ReintentoConflictos reintentoConflictos;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    @Qualifier("pedidosExecutor")
+    private AsyncTaskExecutor pedidosExecutor;
+
+    private static final int TAMANIO_PAGINA_POR_DEFECTO = 50;
+    private static final int TAMANIO_PAGINA_MAXIMO = 500;
+    private static final int FILAS_POR_FLUSH = 100;
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private static final int LONGITUD_MAXIMA_CLAVE = 100;
+    private static final int LONGITUD_MAXIMA_ERROR = 500;
+
+    private static final Logger log = LoggerFactory.getLogger(PedidoService.class);
+
+    @Value("${pedidos.idempotencia.max-entradas:10000}")
+    private int idempotenciaMaxEntradas;
+
+    @Value("${pedidos.idempotencia.ttl:24h}")
+    private Duration idempotenciaTtl;
+
+    // Respuestas de pedidos ya creados por "clienteId:Idempotency-Key"; si no está aquí se busca en la BD
+    private CacheTTL<String, PedidoResponseDTO> pedidosPorClave;
+
+    // Primer intento en curso por clave: los reintentos concurrentes esperan su resultado
+    private final ConcurrentMap<String, CompletableFuture<ResponseEntity<?>>> pedidosEnCurso = new ConcurrentHashMap<>();
+
+    // Pedidos RECIBIDO que se están procesando en esta instancia (evita procesarlos dos veces)
+    private final Set<Integer> pedidosEnProceso = ConcurrentHashMap.newKeySet();
+
+    // Pedidos RECIBIDO ya en la cola de pedidosExecutor o procesándose: el barrido no los vuelve a encolar
+    private final Set<Integer> pedidosEncolados = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void iniciarCache() {
+        pedidosPorClave = new CacheTTL<>(idempotenciaMaxEntradas);
+    }
 
     // Listar todos los pedidos
     public List<Pedido> listarPedidos() {
         return pedidoRepository.findAll();
     }
 
+    // Listar pedidos por página (page/size) o por cursor (afterId/limit)
+    public PaginaDTO<Pedido> listarPedidos(Integer page, Integer size, Integer afterId, Integer limit) {
+        if (afterId != null || limit != null) {
+            return listarPedidosDesde(afterId == null ? 0 : afterId, acotarTamanio(limit));
+        }
+        return listarPedidosPagina(page == null ? 0 : Math.max(page, 0), acotarTamanio(size));
+    }
+
+    private PaginaDTO<Pedido> listarPedidosPagina(int page, int size) {
+        Page<Integer> ids = pedidoRepository.findIds(PageRequest.of(page, size, Sort.by("id")));
+
+        PaginaDTO<Pedido> resultado = new PaginaDTO<>();
+        resultado.setItems(cargarConDetalles(ids.getContent()));
+        resultado.setPagina(ids.getNumber());
+        resultado.setTamanio(ids.getSize());
+        resultado.setTotalElementos(ids.getTotalElements());
+        resultado.setTotalPaginas(ids.getTotalPages());
+        return resultado;
+    }
+
+    private PaginaDTO<Pedido> listarPedidosDesde(int afterId, int limit) {
+        List<Integer> ids = pedidoRepository.findIdsAfter(afterId, Limit.of(limit));
+
+        PaginaDTO<Pedido> resultado = new PaginaDTO<>();
+        resultado.setItems(cargarConDetalles(ids));
+        resultado.setTamanio(limit);
+        // Si el bloque vino completo puede haber más pedidos después del último id
+        if (ids.size() == limit) {
+            resultado.setSiguienteCursor(ids.get(ids.size() - 1));
+        }
+        return resultado;
+    }
+
+    private List<Pedido> cargarConDetalles(List<Integer> ids) {
+        return ids.isEmpty() ? List.of() : pedidoRepository.findWithDetallesByIdIn(ids);
+    }
+
+    private static int acotarTamanio(Integer tamanio) {
+        if (tamanio == null) {
+            return TAMANIO_PAGINA_POR_DEFECTO;
+        }
+        return Math.min(Math.max(tamanio, 1), TAMANIO_PAGINA_MAXIMO);
+    }
+
     // Obtener pedido por ID
     public Pedido obtenerPorId(int id) {
         return pedidoRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Pedido no encontrado"));
     }
 
-    // Crear pedido (solo ADMIN)
-    public Pedido crearPedido(PedidoDTO dto, String authorizationHeader) {
-        validarTokenYRol(authorizationHeader, "ROLE_ADMIN");
-
+    // Crear pedido (solo ADMIN, verificado en AutenticacionInterceptor)
+    public Pedido crearPedido(PedidoDTO dto) {
         // valiadar si existe el usuario
         var userResp = authService.buscarUsuarioPorId((long) dto.getClienteId());
         if (userResp == null || !userResp.isExists()) {
             throw new RuntimeException("El cliente con ID " + dto.getClienteId() + " no existe en el sistema Auth.");
         }
 
-        // Verificar que todos los libros existen antes de continuar
-        for (var detalle : dto.getDetalles()) {
-            try {
-                LibroDTO libro = libroClient.obtenerLibroPorId(detalle.getLibroId());
-                if (libro == null) {
-                    throw new RuntimeException("Libro con ID " + detalle.getLibroId() + " no existe");
-                }
-            } catch (Exception e) {
-                throw new RuntimeException("Libro con ID " + detalle.getLibroId() + " no existe o no disponible");
-            }
-        }
+        // Verificar que todos los libros existen antes de continuar (una sola consulta en lote)
+        Map<Integer, LibroDTO> libros = obtenerLibrosDelPedido(
+                dto.getDetalles().stream().map(DetallePedidoDTO::getLibroId).toList());
 
         // Crear pedido
         Pedido pedido = new Pedido();
@@ -87,23 +214,9 @@ public class PedidoService {
         pedido.setFecha(LocalDateTime.now());
 
         // Calcular total y detalles
-        double total = 0.0;
-        List<DetallePedido> detalles = dto.getDetalles().stream().map(d -> {
-            DetallePedido det = new DetallePedido();
-            det.setLibroId(d.getLibroId());
-            det.setCantidad(d.getCantidad());
-
-            LibroDTO libro = libroClient.obtenerLibroPorId(d.getLibroId());
-            if (libro == null) {
-                throw new RuntimeException("Libro no encontrado: " + d.getLibroId());
-            }
+        List<DetallePedido> detalles = construirDetalles(dto.getDetalles(), libros, pedido);
 
-            det.setPrecioUnitario(libro.getPrecio());
-            det.setPedido(pedido);
-            return det;
-        }).collect(Collectors.toList());
-
-        total = detalles.stream()
+        double total = detalles.stream()
                 .mapToDouble(det -> det.getCantidad() * det.getPrecioUnitario())
                 .sum();
 
@@ -114,138 +227,291 @@ public class PedidoService {
     }
 
     // Actualizar pedido (solo ADMIN)
-    public Pedido actualizarPedido(int id, PedidoDTO dto, String authorizationHeader) {
-        validarTokenYRol(authorizationHeader, "ROLE_ADMIN");
-
-        Pedido existente = pedidoRepository.findById(id)
+    // Las líneas se actualizan por diferencia según libroId: se cambian en su sitio las que cambian
+    // de cantidad, se insertan las de libros nuevos y se borran las que ya no están. Solo los libros
+    // nuevos se consultan y se valorizan; las líneas existentes conservan su precio y su foto.
+    // Si el pedido queda PENDIENTE sus reservas de stock se ajustan a las nuevas cantidades (todo o nada,
+    // como al generarlo); si deja de estar PENDIENTE se liberan.
+    public Pedido actualizarPedido(int id, PedidoDTO dto) {
+        Map<Integer, Integer> cantidades = new LinkedHashMap<>();
+        dto.getDetalles().forEach(d -> cantidades.merge(d.getLibroId(), d.getCantidad(), Integer::sum));
+
+        // Verificar que los libros nuevos existen y traer el stock de los que necesitan más reserva antes de
+        // continuar (una sola consulta en lote); se hace fuera de la transacción que se reintenta
+        Pedido actual = pedidoRepository.findWithDetallesById(id)
                 .orElseThrow(() -> new RuntimeException("Pedido no encontrado"));
+        Map<Integer, LibroDTO> libros = new HashMap<>(obtenerLibrosDelPedido(
+                librosAConsultar(actual, estadoActualizado(actual, dto), cantidades)));
+
+        return reintentoConflictos.ejecutar("actualizar", () -> {
+            Pedido existente = pedidoRepository.findWithDetallesById(id)
+                    .orElseThrow(() -> new RuntimeException("Pedido no encontrado"));
+            existente.setEstado(estadoActualizado(existente, dto));
+
+            // Solo si otro proceso cambió las líneas o las reservas entretanto puede faltar algún libro
+            libros.putAll(obtenerLibrosDelPedido(librosAConsultar(existente, existente.getEstado(), cantidades)
+                    .stream()
+                    .filter(libroId -> !libros.containsKey(libroId))
+                    .toList()));
+
+            aplicarCambiosDetalles(existente, cantidades, libros);
+
+            List<String> errores = reservaStockService.ajustar(id,
+                    cantidadesReservadas(existente.getEstado(), cantidades), libros);
+            if (!errores.isEmpty()) {
+                throw new RuntimeException(String.join(" ", errores));
+            }
 
-        // Verificar que todos los libros existen antes de continuar
-        for (var detalle : dto.getDetalles()) {
-            try {
-                LibroDTO libro = libroClient.obtenerLibroPorId(detalle.getLibroId());
-                if (libro == null) {
-                    throw new RuntimeException("Libro con ID " + detalle.getLibroId() + " no existe");
-                }
-            } catch (Exception e) {
-                throw new RuntimeException("Libro con ID " + detalle.getLibroId() + " no existe o no disponible");
+            double total = existente.getDetalles().stream()
+                    .mapToDouble(det -> det.getCantidad() * det.getPrecioUnitario())
+                    .sum();
+            existente.setTotal(total);
+
+            return pedidoRepository.save(existente);
+        });
+    }
+
+    private static String estadoActualizado(Pedido pedido, PedidoDTO dto) {
+        return dto.getEstado() == null ? pedido.getEstado() : dto.getEstado();
+    }
+
+    // Un pedido PENDIENTE retiene las unidades de todas sus líneas; en cualquier otro estado, ninguna
+    private static Map<Integer, Integer> cantidadesReservadas(String estado, Map<Integer, Integer> cantidades) {
+        return "PENDIENTE".equalsIgnoreCase(estado) ? cantidades : Map.of();
+    }
+
+    // Libros nuevos (para valorizarlos) y los que necesitan retener más unidades de las que ya tienen
+    // reservadas (para comprobar su stock)
+    private List<Integer> librosAConsultar(Pedido pedido, String estado, Map<Integer, Integer> cantidades) {
+        Set<Integer> libroIds = new LinkedHashSet<>(librosNuevos(pedido, cantidades));
+        Map<Integer, Integer> retenidas = reservaStockService.retenidasPorPedido(pedido.getId());
+        cantidadesReservadas(estado, cantidades).forEach((libroId, cantidad) -> {
+            if (cantidad > retenidas.getOrDefault(libroId, 0)) {
+                libroIds.add(libroId);
             }
+        });
+        return new ArrayList<>(libroIds);
+    }
+
+    private static List<Integer> librosNuevos(Pedido pedido, Map<Integer, Integer> cantidades) {
+        Set<Integer> actuales = pedido.getDetalles().stream()
+                .map(DetallePedido::getLibroId)
+                .collect(Collectors.toSet());
+        return cantidades.keySet().stream().filter(libroId -> !actuales.contains(libroId)).toList();
+    }
+
+    private void aplicarCambiosDetalles(Pedido pedido, Map<Integer, Integer> cantidades,
+            Map<Integer, LibroDTO> libros) {
+        Map<Integer, DetallePedido> porLibro = new HashMap<>();
+        List<DetallePedido> quitados = new ArrayList<>();
+
+        // Quitar las líneas de libros que ya no están (y las repetidas de un mismo libro)
+        Iterator<DetallePedido> it = pedido.getDetalles().iterator();
+        while (it.hasNext()) {
+            DetallePedido detalle = it.next();
+            if (!cantidades.containsKey(detalle.getLibroId())
+                    || porLibro.putIfAbsent(detalle.getLibroId(), detalle) != null) {
+                it.remove();
+                quitados.add(detalle);
+            }
+        }
+        if (!quitados.isEmpty()) {
+            detalleRepo.deleteAll(quitados);
         }
 
-        existente.setEstado(dto.getEstado() == null ? existente.getEstado() : dto.getEstado());
+        cantidades.forEach((libroId, cantidad) -> {
+            DetallePedido detalle = porLibro.get(libroId);
+            if (detalle != null) {
+                // Hibernate solo emite UPDATE si la cantidad cambió
+                detalle.setCantidad(cantidad);
+                return;
+            }
 
-        detalleRepo.deleteAll(existente.getDetalles());
-        List<DetallePedido> detalles = dto.getDetalles().stream().map(d -> {
-            DetallePedido det = new DetallePedido();
-            det.setLibroId(d.getLibroId());
-            det.setCantidad(d.getCantidad());
+            DetallePedido nuevo = new DetallePedido();
+            nuevo.setLibroId(libroId);
+            nuevo.setCantidad(cantidad);
+            nuevo.setPrecioUnitario(libros.get(libroId).getPrecio());
+            guardarFotoLibro(nuevo, libros.get(libroId));
+            nuevo.setPedido(pedido);
+            pedido.getDetalles().add(nuevo);
+        });
+    }
+
+    // Consulta cada libro distinto una sola vez y falla si alguno no existe
+    private Map<Integer, LibroDTO> obtenerLibrosDelPedido(List<Integer> libroIds) {
+        if (libroIds.isEmpty()) {
+            return Map.of();
+        }
 
-            LibroDTO libro = libroClient.obtenerLibroPorId(d.getLibroId());
-            if (libro == null) {
-                throw new RuntimeException("Libro no encontrado: " + d.getLibroId());
+        Map<Integer, LibroDTO> libros;
+        try {
+            libros = libroService.obtenerLibrosPorIds(libroIds);
+        } catch (Exception e) {
+            throw new RuntimeException("No se pudo consultar el servicio de libros: " + e.getMessage());
+        }
+
+        for (Integer libroId : libroIds) {
+            if (!libros.containsKey(libroId)) {
+                throw new RuntimeException("Libro con ID " + libroId + " no existe o no disponible");
             }
+        }
+        return libros;
+    }
 
-            det.setPrecioUnitario(libro.getPrecio());
-            det.setPedido(existente);
+    private List<DetallePedido> construirDetalles(List<DetallePedidoDTO> detallesDTO,
+            Map<Integer, LibroDTO> libros, Pedido pedido) {
+        return detallesDTO.stream().map(d -> {
+            DetallePedido det = new DetallePedido();
+            det.setLibroId(d.getLibroId());
+            det.setCantidad(d.getCantidad());
+            det.setPrecioUnitario(libros.get(d.getLibroId()).getPrecio());
+            guardarFotoLibro(det, libros.get(d.getLibroId()));
+            det.setPedido(pedido);
             return det;
         }).collect(Collectors.toList());
+    }
 
-        double total = detalles.stream()
-                .mapToDouble(det -> det.getCantidad() * det.getPrecioUnitario())
-                .sum();
-
-        existente.setTotal(total);
-        existente.setDetalles(detalles);
-
-        return pedidoRepository.save(existente);
+    private static void guardarFotoLibro(DetallePedido detalle, LibroDTO libro) {
+        detalle.setTituloLibro(libro.getTitulo());
+        detalle.setAutorLibro(libro.getAutor());
+        detalle.setCategoriaLibro(libro.getCategoria());
+        detalle.setPrecioLista(libro.getPrecio());
+        detalle.setDescuento(libro.getDescuento());
     }
 
     // Eliminar pedido (solo ADMIN)
-    public void eliminarPedido(int id, String authorizationHeader) {
-        validarTokenYRol(authorizationHeader, "ROLE_ADMIN");
+    public void eliminarPedido(int id) {
+        reservaStockService.liberar(id);
         pedidoRepository.deleteById(id);
     }
 
     // Finalizar pedido (solo ADMIN)
-    public Pedido finalizarPedido(int id, String authorizationHeader) {
-        validarTokenYRol(authorizationHeader, "ROLE_ADMIN");
-
-        Pedido p = pedidoRepository.findById(id)
-                .orElseThrow(() -> new RuntimeException("Pedido no encontrado"));
-        p.setEstado("finalizado");
-        return pedidoRepository.save(p);
+    public Pedido finalizarPedido(int id) {
+        return reintentoConflictos.ejecutar("finalizar", () -> {
+            Pedido p = pedidoRepository.findById(id)
+                    .orElseThrow(() -> new RuntimeException("Pedido no encontrado"));
+            p.setEstado("finalizado");
+            return pedidoRepository.save(p);
+        });
     }
 
-    // Validar token y rol desde Auth SOAP
-    private String validarTokenYRol(String authorizationHeader, String rolRequerido) {
-        if (authorizationHeader == null || !authorizationHeader.startsWith("Bearer ")) {
-            throw new RuntimeException("Token no proporcionado");
+    // Igual que validarYAutorizarPedido, pero una Idempotency-Key repetida devuelve el pedido ya creado
+    // en lugar de crear otro. La clave es del cliente, no del endpoint: si la usó antes en
+    // generar-pedido-async y el pedido aún no tiene precios (RECIBIDO) o se rechazó, se responde como allí
+    // (202 con la URL de estado) en lugar de un 201 con un pedido a medio procesar
+    public ResponseEntity<?> generarPedido(ValidateTokenResponse resp, String claveIdempotencia,
+            PedidoRequestDTO pedidoRequest) {
+        if (claveIdempotencia == null || claveIdempotencia.isBlank()) {
+            return validarYAutorizarPedido(resp, pedidoRequest);
+        }
+        if (claveIdempotencia.length() > LONGITUD_MAXIMA_CLAVE) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Idempotency-Key no puede superar " + LONGITUD_MAXIMA_CLAVE + " caracteres.");
         }
 
-        String token = authorizationHeader.substring(7);
+        String llave = resp.getId() + ":" + claveIdempotencia;
 
-        ValidateTokenResponse v = authService.validar(token);
-        if (v == null || !v.isValid()) {
-            throw new RuntimeException("Token inválido");
+        // --- 1️⃣ Pedido ya creado con esta clave (memoria y luego BD) ---
+        ResponseEntity<?> previo = pedidoYaCreado(resp, llave, claveIdempotencia);
+        if (previo != null) {
+            return previo;
         }
 
-        String rol = v.getRol();
-        if (!rol.equalsIgnoreCase(rolRequerido)) {
-            throw new RuntimeException("Acceso denegado: se requiere rol " + rolRequerido);
+        // --- 2️⃣ Si otro intento con la misma clave está en curso, esperar su resultado ---
+        CompletableFuture<ResponseEntity<?>> intento = new CompletableFuture<>();
+        CompletableFuture<ResponseEntity<?>> enCurso = pedidosEnCurso.putIfAbsent(llave, intento);
+        if (enCurso != null) {
+            return esperarIntento(enCurso);
         }
-        return token;
-    }
 
-    public ResponseEntity<?> validarYAutorizarPedido(String tokenHeader, PedidoRequestDTO pedidoRequest) {
-
-        // --- 1️⃣ Validar formato del token ---
-        if (tokenHeader == null || !tokenHeader.startsWith("Bearer ")) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body("Token no proporcionado o formato inválido");
+        // --- 3️⃣ Primer intento: crear el pedido guardando la clave ---
+        try {
+            ResponseEntity<?> respuesta;
+            try {
+                respuesta = crearPedidoCliente(resp, pedidoRequest, claveIdempotencia);
+            } catch (DataIntegrityViolationException e) {
+                // Otra instancia guardó la misma clave entre la búsqueda y el insert (índice único)
+                respuesta = pedidoYaCreado(resp, llave, claveIdempotencia);
+                if (respuesta == null) {
+                    throw e;
+                }
+            }
+            if (respuesta.getBody() instanceof PedidoResponseDTO creado) {
+                pedidosPorClave.guardar(llave, creado, idempotenciaTtl);
+            }
+            intento.complete(respuesta);
+            return respuesta;
+        } catch (RuntimeException e) {
+            intento.completeExceptionally(e);
+            throw e;
+        } finally {
+            pedidosEnCurso.remove(llave, intento);
         }
+    }
 
-        String token = tokenHeader.substring(7);
+    private ResponseEntity<?> pedidoYaCreado(ValidateTokenResponse resp, String llave, String claveIdempotencia) {
+        PedidoResponseDTO enCache = pedidosPorClave.obtener(llave);
+        if (enCache != null) {
+            return repetida(enCache);
+        }
 
-        // --- 2️⃣ Validar el token mediante SOAP ---
-        ValidateTokenResponse resp = authService.validar(token);
+        Optional<Pedido> guardado = pedidoRepository.findWithDetallesByClienteIdAndClaveIdempotencia(
+                resp.getId().intValue(), claveIdempotencia);
+        if (guardado.isEmpty()) {
+            return null;
+        }
 
-        if (resp == null || !resp.isValid()) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body("Token inválido o expirado");
+        Pedido pedido = guardado.get();
+        if ("RECIBIDO".equals(pedido.getEstado()) || "RECHAZADO".equals(pedido.getEstado())) {
+            return aceptadoRepetido(pedido);
         }
+        PedidoResponseDTO respuesta = construirPedidoResponseDTO(pedido, resp, librosParaMostrar(List.of(pedido)));
+        pedidosPorClave.guardar(llave, respuesta, idempotenciaTtl);
+        return repetida(respuesta);
+    }
 
-        // --- 3️⃣ Verificar el rol del usuario ---
-        if (resp.getRol() == null || !resp.getRol().equals("ROLE_USER")) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN)
-                    .body("Acceso denegado. Solo los usuarios con rol CLIENTE pueden generar pedidos.");
+    // Misma respuesta que la creación original, marcada como repetida
+    private static ResponseEntity<?> repetida(PedidoResponseDTO respuesta) {
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .header("Idempotent-Replayed", "true")
+                .body(respuesta);
+    }
+
+    private static ResponseEntity<?> esperarIntento(CompletableFuture<ResponseEntity<?>> intento) {
+        try {
+            return intento.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw e;
         }
+    }
 
-        Long clienteId = resp.getId();
+    // El token y el rol ROLE_USER ya los validó AutenticacionInterceptor; resp es el usuario de la petición
+    public ResponseEntity<?> validarYAutorizarPedido(ValidateTokenResponse resp, PedidoRequestDTO pedidoRequest) {
+        return crearPedidoCliente(resp, pedidoRequest, null);
+    }
 
-        // --- 4️⃣ Validar existencia y stock de libros ---
-        List<String> errores = new ArrayList<>();
-        Map<Integer, LibroDTO> librosValidados = new HashMap<>();
+    private ResponseEntity<?> crearPedidoCliente(ValidateTokenResponse resp, PedidoRequestDTO pedidoRequest,
+            String claveIdempotencia) {
 
-        for (DetallePedidoRequestDTO detalle : pedidoRequest.getDetalles()) {
-            try {
-                LibroDTO libro = libroClient.obtenerLibroPorId(detalle.getLibroId());
+        Long clienteId = resp.getId();
 
-                if (libro == null || !libro.isEstado()) {
-                    errores.add("El libro con ID " + detalle.getLibroId() + " no está disponible.");
-                    continue;
-                }
+        Pedido pedido = new Pedido();
+        pedido.setClienteId(clienteId.intValue());
+        pedido.setFecha(LocalDateTime.now());
+        pedido.setClaveIdempotencia(claveIdempotencia);
+        List<DetallePedido> detalles = detallesSolicitados(pedido, pedidoRequest.getDetalles());
 
-                if (detalle.getCantidad() > libro.getStock()) {
-                    errores.add("Stock insuficiente para el libro '" + libro.getTitulo() +
-                            "'. Stock disponible: " + libro.getStock());
-                } else {
-                    librosValidados.put(detalle.getLibroId(), libro);
-                }
+        // --- 1️⃣ Validar existencia y stock de libros ---
+        Map<Integer, LibroDTO> librosValidados = new HashMap<>();
+        List<String> errores = validarLibros(detalles, librosValidados, false);
 
-            } catch (Exception ex) {
-                errores.add("Error al obtener el libro con ID " + detalle.getLibroId() +
-                        ": " + ex.getMessage());
-            }
+        // Retener las unidades contra (stock - reservas activas) sin otra llamada remota
+        Map<Integer, Integer> cantidades = cantidadesPorLibro(detalles);
+        if (errores.isEmpty()) {
+            errores = reservaStockService.retener(cantidades, librosValidados);
         }
 
         if (!errores.isEmpty()) {
@@ -253,36 +519,14 @@ public class PedidoService {
                     .body(errores);
         }
 
-        // --- 5️⃣ Crear y guardar el pedido ---
-        Pedido pedido = new Pedido();
-        pedido.setClienteId(clienteId.intValue());
+        // --- 2️⃣ Calcular precios y guardar el pedido con sus reservas ---
         pedido.setEstado("PENDIENTE");
-        pedido.setFecha(LocalDateTime.now());
-
-        List<DetallePedido> detalles = new ArrayList<>();
-        double total = 0.0;
-
-        for (DetallePedidoRequestDTO detalleDTO : pedidoRequest.getDetalles()) {
-            LibroDTO libro = librosValidados.get(detalleDTO.getLibroId());
-            double precioFinal = libro.getPrecio() - (libro.getPrecio() * libro.getDescuento() / 100);
-            double subtotal = precioFinal * detalleDTO.getCantidad();
-            total += subtotal;
-
-            DetallePedido detalle = new DetallePedido();
-            detalle.setLibroId(libro.getId());
-            detalle.setCantidad(detalleDTO.getCantidad());
-            detalle.setPrecioUnitario(precioFinal);
-            detalle.setPedido(pedido);
-
-            detalles.add(detalle);
-        }
-
-        pedido.setTotal(total);
+        pedido.setTotal(aplicarPrecios(detalles, librosValidados));
         pedido.setDetalles(detalles);
 
-        pedidoRepository.save(pedido);
+        guardarConReservas(pedido, cantidades);
 
-        // --- 6️⃣ Construir respuesta DTO ---
+        // --- 3️⃣ Construir respuesta DTO ---
         PedidoResponseDTO response = new PedidoResponseDTO();
         response.setId(pedido.getId());
         response.setFecha(pedido.getFecha());
@@ -317,7 +561,283 @@ public class PedidoService {
         return ResponseEntity.status(HttpStatus.CREATED).body(response);
     }
 
-    private PedidoResponseDTO construirPedidoResponseDTO(Pedido pedido, ValidateTokenResponse clienteSOAP) {
+    // Recibe el pedido sin consultar libro-service: lo guarda RECIBIDO y responde 202 con la URL de estado.
+    // La validación de libros y el cálculo de precios se hacen después en pedidosExecutor.
+    // Una Idempotency-Key repetida (también si se usó en generar-pedido) responde 202 con el pedido existente.
+    public ResponseEntity<?> recibirPedido(ValidateTokenResponse resp, String claveIdempotencia,
+            PedidoRequestDTO pedidoRequest) {
+        boolean conClave = claveIdempotencia != null && !claveIdempotencia.isBlank();
+        if (conClave && claveIdempotencia.length() > LONGITUD_MAXIMA_CLAVE) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Idempotency-Key no puede superar " + LONGITUD_MAXIMA_CLAVE + " caracteres.");
+        }
+
+        int clienteId = resp.getId().intValue();
+
+        // --- 1️⃣ Una Idempotency-Key repetida devuelve el pedido ya recibido ---
+        if (conClave) {
+            Optional<Pedido> previo = pedidoRepository.findWithDetallesByClienteIdAndClaveIdempotencia(
+                    clienteId, claveIdempotencia);
+            if (previo.isPresent()) {
+                return aceptadoRepetido(previo.get());
+            }
+        }
+
+        // --- 2️⃣ Guardar el pedido RECIBIDO (las líneas aún sin precio) ---
+        Pedido pedido = new Pedido();
+        pedido.setClienteId(clienteId);
+        pedido.setEstado("RECIBIDO");
+        pedido.setFecha(LocalDateTime.now());
+        pedido.setTotal(0.0);
+        pedido.setClaveIdempotencia(conClave ? claveIdempotencia : null);
+        pedido.setDetalles(detallesSolicitados(pedido, pedidoRequest.getDetalles()));
+
+        try {
+            pedidoRepository.save(pedido);
+        } catch (DataIntegrityViolationException e) {
+            // Reintento concurrente con la misma clave
+            if (!conClave) {
+                throw e;
+            }
+            return aceptadoRepetido(pedidoRepository.findWithDetallesByClienteIdAndClaveIdempotencia(
+                    clienteId, claveIdempotencia).orElseThrow(() -> e));
+        }
+
+        // --- 3️⃣ Encolar el procesamiento (el pedido ya está confirmado en la BD) ---
+        encolarPedidoRecibido(pedido.getId());
+
+        return aceptado(pedido);
+    }
+
+    // Encola el procesamiento salvo que el pedido ya esté en la cola o procesándose (p. ej. el barrido lo
+    // encuentra RECIBIDO mientras libro-service está degradado y su intento anterior aún no terminó)
+    public void encolarPedidoRecibido(int pedidoId) {
+        if (!pedidosEncolados.add(pedidoId)) {
+            return;
+        }
+        try {
+            pedidosExecutor.execute(() -> {
+                try {
+                    procesarPedidoRecibido(pedidoId);
+                } finally {
+                    pedidosEncolados.remove(pedidoId);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            pedidosEncolados.remove(pedidoId);
+            // Cola llena: el pedido sigue RECIBIDO y lo retoma PedidosRecibidosBarrido
+            log.warn("Cola de pedidos llena; el pedido {} se procesará en el próximo barrido", pedidoId);
+        }
+    }
+
+    // Valida libros y stock de un pedido RECIBIDO, calcula precios y lo deja PENDIENTE o RECHAZADO.
+    // Si libro-service no está disponible el pedido sigue RECIBIDO para reintentarlo más tarde.
+    public void procesarPedidoRecibido(int pedidoId) {
+        if (!pedidosEnProceso.add(pedidoId)) {
+            return;
+        }
+        try {
+            Pedido pedido = pedidoRepository.findWithDetallesById(pedidoId).orElse(null);
+            if (pedido == null || !"RECIBIDO".equals(pedido.getEstado())) {
+                return;
+            }
+
+            Map<Integer, LibroDTO> librosValidados = new HashMap<>();
+            List<String> errores = validarLibros(pedido.getDetalles(), librosValidados, true);
+
+            Map<Integer, Integer> cantidades = cantidadesPorLibro(pedido.getDetalles());
+            if (errores.isEmpty()) {
+                errores = reservaStockService.retener(cantidades, librosValidados);
+            }
+
+            if (errores.isEmpty()) {
+                pedido.setTotal(aplicarPrecios(pedido.getDetalles(), librosValidados));
+                pedido.setEstado("PENDIENTE");
+                guardarConReservas(pedido, cantidades);
+            } else {
+                pedido.setEstado("RECHAZADO");
+                pedido.setErrores(errores.stream()
+                        .map(error -> error.length() > LONGITUD_MAXIMA_ERROR
+                                ? error.substring(0, LONGITUD_MAXIMA_ERROR)
+                                : error)
+                        .collect(Collectors.toList()));
+                pedidoRepository.save(pedido);
+            }
+        } catch (RuntimeException e) {
+            log.warn("No se pudo procesar el pedido {}; queda RECIBIDO para reintentar: {}", pedidoId, e.getMessage());
+        } finally {
+            pedidosEnProceso.remove(pedidoId);
+        }
+    }
+
+    // Estado de un pedido del cliente; incluye el detalle cuando ya fue procesado y los errores si se rechazó
+    public ResponseEntity<?> obtenerEstadoPedido(ValidateTokenResponse resp, int pedidoId) {
+        Optional<Pedido> encontrado = pedidoRepository.findWithDetallesById(pedidoId)
+                .filter(pedido -> pedido.getClienteId() == resp.getId().intValue());
+        if (encontrado.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body("Pedido no encontrado con ID: " + pedidoId);
+        }
+
+        Pedido pedido = encontrado.get();
+        EstadoPedidoDTO estado = estadoPedido(pedido);
+
+        if ("RECHAZADO".equals(pedido.getEstado())) {
+            estado.setErrores(pedidoRepository.findErroresById(pedidoId));
+        } else if (!"RECIBIDO".equals(pedido.getEstado())) {
+            estado.setPedido(construirPedidoResponseDTO(pedido, resp, librosParaMostrar(List.of(pedido))));
+        }
+        return ResponseEntity.ok(estado);
+    }
+
+    private static ResponseEntity<?> aceptado(Pedido pedido) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .location(URI.create("/pedidos/estado/" + pedido.getId()))
+                .body(estadoPedido(pedido));
+    }
+
+    private static ResponseEntity<?> aceptadoRepetido(Pedido pedido) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .location(URI.create("/pedidos/estado/" + pedido.getId()))
+                .header("Idempotent-Replayed", "true")
+                .body(estadoPedido(pedido));
+    }
+
+    private static EstadoPedidoDTO estadoPedido(Pedido pedido) {
+        EstadoPedidoDTO estado = new EstadoPedidoDTO();
+        estado.setId(pedido.getId());
+        estado.setEstado(pedido.getEstado());
+        estado.setFecha(pedido.getFecha());
+        return estado;
+    }
+
+    private static List<DetallePedido> detallesSolicitados(Pedido pedido, List<DetallePedidoRequestDTO> solicitados) {
+        List<DetallePedido> detalles = new ArrayList<>();
+        for (DetallePedidoRequestDTO solicitado : solicitados) {
+            DetallePedido detalle = new DetallePedido();
+            detalle.setLibroId(solicitado.getLibroId());
+            detalle.setCantidad(solicitado.getCantidad());
+            detalle.setPrecioUnitario(0.0);
+            detalle.setPedido(pedido);
+            detalles.add(detalle);
+        }
+        return detalles;
+    }
+
+    // Comprueba que cada libro existe, está activo y tiene stock; los válidos quedan en librosValidados.
+    // Con propagarFallasRemotas una caída de libro-service se lanza en vez de registrarse como error del pedido.
+    private List<String> validarLibros(List<DetallePedido> detalles, Map<Integer, LibroDTO> librosValidados,
+            boolean propagarFallasRemotas) {
+        List<String> errores = new ArrayList<>();
+
+        // Las consultas corren en paralelo; los errores se recogen en el orden del pedido
+        Map<Integer, CompletableFuture<LibroDTO>> consultas = libroService.consultarLibrosEnParalelo(
+                detalles.stream().map(DetallePedido::getLibroId).toList());
+
+        for (DetallePedido detalle : detalles) {
+            try {
+                LibroDTO libro = esperarLibro(consultas.get(detalle.getLibroId()));
+
+                if (libro == null || !Boolean.TRUE.equals(libro.getEstado())) {
+                    errores.add("El libro con ID " + detalle.getLibroId() + " no está disponible.");
+                    continue;
+                }
+
+                int stock = libro.getStock() == null ? 0 : libro.getStock();
+                if (detalle.getCantidad() > stock) {
+                    errores.add("Stock insuficiente para el libro '" + libro.getTitulo() +
+                            "'. Stock disponible: " + stock);
+                } else {
+                    librosValidados.put(detalle.getLibroId(), libro);
+                }
+
+            } catch (RuntimeException ex) {
+                // Caída de libro-service (circuito abierto, timeout, 5xx): el pedido se reintenta más tarde
+                if (propagarFallasRemotas
+                        && (ex instanceof DependenciaNoDisponibleException || LibroService.esFallaTransitoria(ex))) {
+                    throw ex;
+                }
+                errores.add("Error al obtener el libro con ID " + detalle.getLibroId() +
+                        ": " + ex.getMessage());
+            }
+        }
+        return errores;
+    }
+
+    private static Map<Integer, Integer> cantidadesPorLibro(List<DetallePedido> detalles) {
+        Map<Integer, Integer> cantidades = new HashMap<>();
+        detalles.forEach(detalle -> cantidades.merge(detalle.getLibroId(), detalle.getCantidad(), Integer::sum));
+        return cantidades;
+    }
+
+    // Guarda el pedido y sus reservas en una misma transacción; si falla se suelta la retención en memoria
+    private void guardarConReservas(Pedido pedido, Map<Integer, Integer> cantidades) {
+        try {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                Pedido guardado = pedidoRepository.save(pedido);
+                reservaStockService.registrar(guardado.getId(), cantidades);
+            });
+        } catch (RuntimeException e) {
+            reservaStockService.soltar(cantidades);
+            throw e;
+        }
+    }
+
+    // Precio final (con descuento) y foto del libro en cada línea; devuelve el total del pedido
+    private static double aplicarPrecios(List<DetallePedido> detalles, Map<Integer, LibroDTO> libros) {
+        double total = 0.0;
+        for (DetallePedido detalle : detalles) {
+            LibroDTO libro = libros.get(detalle.getLibroId());
+            double precioFinal = libro.getPrecio() - (libro.getPrecio() * libro.getDescuento() / 100);
+            detalle.setPrecioUnitario(precioFinal);
+            guardarFotoLibro(detalle, libro);
+            total += precioFinal * detalle.getCantidad();
+        }
+        return total;
+    }
+
+    private LibroDTO esperarLibro(CompletableFuture<LibroDTO> consulta) {
+        try {
+            return consulta.join();
+        } catch (CompletionException e) {
+            // Propaga la excepción original del cliente Feign para conservar su mensaje
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw e;
+        }
+    }
+
+    // Libros a consultar en libro-service: solo los de detalles antiguos sin foto guardada,
+    // resueltos una sola vez (caché + lote)
+    private Map<Integer, LibroDTO> librosParaMostrar(Collection<Pedido> pedidos) {
+        Set<Integer> sinFoto = pedidos.stream()
+                .flatMap(pedido -> pedido.getDetalles().stream())
+                .filter(detalle -> detalle.getTituloLibro() == null)
+                .map(DetallePedido::getLibroId)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+
+        return sinFoto.isEmpty() ? Map.of() : libroService.obtenerLibrosParaMostrar(sinFoto);
+    }
+
+    private static LibroDTO libroDelDetalle(DetallePedido detalle, Map<Integer, LibroDTO> libros) {
+        if (detalle.getTituloLibro() == null) {
+            return libros.get(detalle.getLibroId());
+        }
+
+        // Stock y estado no forman parte de la foto: cambian y se consultan en libro-service, así que se dejan nulos
+        LibroDTO libro = new LibroDTO();
+        libro.setId(detalle.getLibroId());
+        libro.setTitulo(detalle.getTituloLibro());
+        libro.setAutor(detalle.getAutorLibro());
+        libro.setCategoria(detalle.getCategoriaLibro());
+        libro.setPrecio(detalle.getPrecioLista() == null ? 0 : detalle.getPrecioLista());
+        libro.setDescuento(detalle.getDescuento() == null ? 0 : detalle.getDescuento());
+        return libro;
+    }
+
+    private PedidoResponseDTO construirPedidoResponseDTO(Pedido pedido, ValidateTokenResponse clienteSOAP,
+            Map<Integer, LibroDTO> libros) {
         PedidoResponseDTO response = new PedidoResponseDTO();
         response.setId(pedido.getId());
         response.setFecha(pedido.getFecha());
@@ -338,12 +858,8 @@ public class PedidoService {
         List<ItemPedidoResponseDTO> items = new ArrayList<>();
 
         for (DetallePedido detalle : pedido.getDetalles()) {
-            LibroDTO libro = null;
-            try {
-                libro = libroClient.obtenerLibroPorId(detalle.getLibroId());
-            } catch (Exception e) {
-                // en caso de error remoto, devolvemos null pero no interrumpimos
-            }
+            // si libro-service no respondió el libro queda en null pero no interrumpimos
+            LibroDTO libro = libroDelDetalle(detalle, libros);
 
             ItemPedidoResponseDTO item = new ItemPedidoResponseDTO();
             item.setId(detalle.getId());
@@ -359,89 +875,69 @@ public class PedidoService {
         return response;
     }
 
-    public ResponseEntity<?> obtenerPedidosCliente(String tokenHeader) {
-
-        // --- 1️⃣ Validar formato del token ---
-        if (tokenHeader == null || !tokenHeader.startsWith("Bearer ")) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body("Token no proporcionado o formato inválido");
-        }
-
-        String token = tokenHeader.substring(7);
-
-        // --- 2️⃣ Validar el token mediante SOAP ---
-        ValidateTokenResponse resp = authService.validar(token);
-
-        if (resp == null || !resp.isValid()) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body("Token inválido o expirado");
-        }
-
-        // --- 3️⃣ Verificar el rol del usuario ---
-        if (resp.getRol() == null || !resp.getRol().equals("ROLE_USER")) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN)
-                    .body("Acceso denegado. Solo los usuarios con rol CLIENTE pueden ver sus pedidos.");
-        }
+    public ResponseEntity<?> obtenerPedidosCliente(ValidateTokenResponse resp) {
 
         Long clienteId = resp.getId();
 
-        // --- 4️⃣ Buscar pedidos del cliente ---
-        List<Pedido> pedidos = pedidoRepository.findByClienteId(clienteId.intValue());
+        // --- 1️⃣ Buscar pedidos del cliente ---
+        List<Pedido> pedidos = pedidoRepository.findWithDetallesByClienteId(clienteId.intValue());
 
         if (pedidos.isEmpty()) {
             return ResponseEntity.ok(Collections.emptyList());
         }
 
-        // --- 5️⃣ Construir lista de respuestas ---
+        // --- 2️⃣ Construir lista de respuestas ---
+        Map<Integer, LibroDTO> libros = librosParaMostrar(pedidos);
         List<PedidoResponseDTO> respuesta = pedidos.stream()
-                .map(pedido -> construirPedidoResponseDTO(pedido, resp))
+                .map(pedido -> construirPedidoResponseDTO(pedido, resp, libros))
                 .collect(Collectors.toList());
 
         return ResponseEntity.ok(respuesta);
     }
 
-    public ResponseEntity<?> listarPedidosAdmin(String tokenHeader) {
-        // --- 1️⃣ Validar formato del token ---
-        if (tokenHeader == null || !tokenHeader.startsWith("Bearer ")) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body("Token no proporcionado o formato inválido");
-        }
-
-        String token = tokenHeader.substring(7);
+    public ResponseEntity<?> listarPedidosAdmin() {
+        return listarPedidosAdmin(null, null, null, null);
+    }
 
-        // --- 2️⃣ Validar el token mediante SOAP ---
-        ValidateTokenResponse resp = authService.validar(token);
+    public ResponseEntity<?> listarPedidosAdmin(Integer page, Integer size, Integer afterId, Integer limit) {
+        // --- 1️⃣ Sin parámetros de paginación se conserva la respuesta original (lista completa) ---
+        if (page == null && size == null && afterId == null && limit == null) {
+            List<Pedido> pedidos = pedidoRepository.findAll();
 
-        if (resp == null || !resp.isValid()) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body("Token inválido o expirado");
+            if (pedidos.isEmpty()) {
+                return ResponseEntity.ok(Collections.emptyList());
+            }
+            return ResponseEntity.ok(construirListaAdmin(pedidos));
         }
 
-        // --- 3️⃣ Verificar el rol ---
-        if (resp.getRol() == null || !resp.getRol().equals("ROLE_ADMIN")) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN)
-                    .body("Acceso denegado. Solo los administradores pueden listar pedidos.");
-        }
+        // --- 2️⃣ Página o bloque por cursor, con metadatos para pedir el siguiente ---
+        PaginaDTO<Pedido> pagina = listarPedidos(page, size, afterId, limit);
 
-        // --- 4️⃣ Obtener los pedidos desde la BD ---
-        List<Pedido> pedidos = pedidoRepository.findAll();
+        PaginaDTO<PedidoResponseDTO> respuesta = new PaginaDTO<>();
+        respuesta.setItems(construirListaAdmin(pagina.getItems()));
+        respuesta.setPagina(pagina.getPagina());
+        respuesta.setTamanio(pagina.getTamanio());
+        respuesta.setTotalElementos(pagina.getTotalElementos());
+        respuesta.setTotalPaginas(pagina.getTotalPaginas());
+        respuesta.setSiguienteCursor(pagina.getSiguienteCursor());
 
-        if (pedidos.isEmpty()) {
-            return ResponseEntity.ok(Collections.emptyList());
-        }
+        return ResponseEntity.ok(respuesta);
+    }
 
-        // --- 5️⃣ Construir la respuesta con tus DTOs existentes ---
-        List<PedidoResponseDTO> lista = pedidos.stream()
-                .map(pedido -> {
-                    GetUserByIdResponse clienteSOAP = authService.obtenerUsuarioPorId(pedido.getClienteId());
-                    return construirPedidoResponseDTOAdmin(pedido, clienteSOAP);
-                })
-                .toList();
+    private List<PedidoResponseDTO> construirListaAdmin(List<Pedido> pedidos) {
+        // Resolver cada cliente distinto una sola vez
+        Map<Integer, GetUserByIdResponse> clientes = authService.obtenerUsuariosPorIds(
+                pedidos.stream().map(Pedido::getClienteId).toList());
 
-        return ResponseEntity.ok(lista);
+        Map<Integer, LibroDTO> libros = librosParaMostrar(pedidos);
+
+        return pedidos.stream()
+                .map(pedido -> construirPedidoResponseDTOAdmin(pedido, clientes.get(pedido.getClienteId()), libros))
+                .toList();
     }
 
-    private PedidoResponseDTO construirPedidoResponseDTOAdmin(Pedido pedido, GetUserByIdResponse clienteSOAP) {
+    private PedidoResponseDTO construirPedidoResponseDTOAdmin(Pedido pedido, GetUserByIdResponse clienteSOAP,
+            Map<Integer, LibroDTO> libros) {
         PedidoResponseDTO response = new PedidoResponseDTO();
         response.setId(pedido.getId());
         response.setFecha(pedido.getFecha());
@@ -450,22 +946,22 @@ public class PedidoService {
 
         // --- Cliente ---
         ClienteSOAPDTO clienteDTO = new ClienteSOAPDTO();
-        clienteDTO.setId(clienteSOAP.getId());
-        clienteDTO.setUsername(clienteSOAP.getUsername());
-        clienteDTO.setEmail(clienteSOAP.getEmail());
-        clienteDTO.setRol(clienteSOAP.getRol());
+        if (clienteSOAP != null) {
+            clienteDTO.setId(clienteSOAP.getId());
+            clienteDTO.setUsername(clienteSOAP.getUsername());
+            clienteDTO.setEmail(clienteSOAP.getEmail());
+            clienteDTO.setRol(clienteSOAP.getRol());
+        } else {
+            clienteDTO.setId((long) pedido.getClienteId());
+        }
         response.setCliente(clienteDTO);
 
         // --- Items ---
         List<ItemPedidoResponseDTO> items = new ArrayList<>();
 
         for (DetallePedido detalle : pedido.getDetalles()) {
-            LibroDTO libro = null;
-            try {
-                libro = libroClient.obtenerLibroPorId(detalle.getLibroId());
-            } catch (Exception e) {
-                // Evita interrumpir si el microservicio libro no responde
-            }
+            // Evita interrumpir si el microservicio libro no responde
+            LibroDTO libro = libroDelDetalle(detalle, libros);
 
             ItemPedidoResponseDTO item = new ItemPedidoResponseDTO();
             item.setId(detalle.getId());
@@ -481,69 +977,110 @@ public class PedidoService {
         return response;
     }
 
-    @Transactional
-    public ResponseEntity<?> finalizarPedido(String tokenHeader, int pedidoId) {
-
-        // 1️⃣ Validar token
-        if (tokenHeader == null || !tokenHeader.startsWith("Bearer ")) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body("Token no proporcionado o formato inválido");
-        }
+    // Exporta todos los pedidos como NDJSON (un PedidoResponseDTO por línea) sin cargarlos en memoria
+    public ResponseEntity<StreamingResponseBody> exportarPedidos() {
+        // El cuerpo se escribe fila a fila mientras se recorre el cursor
+        StreamingResponseBody cuerpo = this::escribirPedidosNdjson;
+        return ResponseEntity.ok().contentType(NDJSON).body(cuerpo);
+    }
 
-        String token = tokenHeader.substring(7);
-        ValidateTokenResponse resp = authService.validar(token);
+    private void escribirPedidosNdjson(OutputStream out) {
+        TransactionTemplate lectura = new TransactionTemplate(transactionManager);
+        lectura.setReadOnly(true);
+
+        lectura.executeWithoutResult(status -> {
+            try (Stream<Pedido> pedidos = pedidoRepository.streamAllOrderById()) {
+                List<Pedido> bloque = new ArrayList<>(FILAS_POR_FLUSH);
+                for (Pedido pedido : (Iterable<Pedido>) pedidos::iterator) {
+                    bloque.add(pedido);
+                    if (bloque.size() == FILAS_POR_FLUSH) {
+                        escribirBloque(bloque, out);
+                    }
+                }
+                escribirBloque(bloque, out);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error al escribir la exportación de pedidos", e);
+            }
+        });
+    }
 
-        if (resp == null || !resp.isValid()) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body("Token inválido o expirado");
+    // Escribe un bloque de filas resolviendo clientes y libros una vez por bloque (no por fila). Si auth-service
+    // falla el cliente sale solo con su id, como en el listado de administración, y la exportación sigue.
+    private void escribirBloque(List<Pedido> bloque, OutputStream out) throws IOException {
+        if (bloque.isEmpty()) {
+            return;
         }
 
-        if (!"ROLE_ADMIN".equals(resp.getRol())) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN)
-                    .body("Solo administradores pueden finalizar pedidos.");
-        }
+        Map<Integer, GetUserByIdResponse> clientes = authService.obtenerUsuariosPorIds(
+                bloque.stream().map(Pedido::getClienteId).toList());
+        Map<Integer, LibroDTO> libros = librosParaMostrar(bloque);
 
-        // 2️⃣ Buscar el pedido
-        Optional<Pedido> optionalPedido = pedidoRepository.findById(pedidoId);
-        if (optionalPedido.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                    .body("Pedido no encontrado con ID: " + pedidoId);
+        for (Pedido pedido : bloque) {
+            PedidoResponseDTO fila = construirPedidoResponseDTOAdmin(pedido, clientes.get(pedido.getClienteId()),
+                    libros);
+            out.write(objectMapper.writeValueAsBytes(fila));
+            out.write('\n');
+
+            // Sacar el pedido (y sus detalles) del contexto para que la memoria no crezca
+            entityManager.detach(pedido);
         }
+        out.flush();
+        bloque.clear();
+    }
 
-        Pedido pedido = optionalPedido.get();
+    // Finaliza un pedido PENDIENTE y registra sus descuentos de stock (solo ADMIN).
+    // Si otro administrador lo cambia a la vez se reintenta: al releerlo ya no estará PENDIENTE.
+    public ResponseEntity<?> finalizarPedidoPendiente(int pedidoId) {
 
-        if (!"PENDIENTE".equalsIgnoreCase(pedido.getEstado())) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body("El pedido ya fue finalizado o no está en estado PENDIENTE.");
-        }
+        ResponseEntity<?> resultado = reintentoConflictos.ejecutar("finalizar-pendiente", () -> {
+            // 1️⃣ Buscar el pedido
+            Optional<Pedido> optionalPedido = pedidoRepository.findWithDetallesById(pedidoId);
+            if (optionalPedido.isEmpty()) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body("Pedido no encontrado con ID: " + pedidoId);
+            }
 
-        // 3️⃣ Actualizar stock en servicio de libros
-        List<String> errores = new ArrayList<>();
+            Pedido pedido = optionalPedido.get();
 
-        for (DetallePedido detalle : pedido.getDetalles()) {
-            try {
-                libroClient.restarStock(
-                        detalle.getLibroId(),
-                        detalle.getCantidad());
-            } catch (Exception e) {
-                throw new RuntimeException("No se pudo actualizar el stock del libro ID " + detalle.getLibroId());
+            if (!"PENDIENTE".equalsIgnoreCase(pedido.getEstado())) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                        .body("El pedido ya fue finalizado o no está en estado PENDIENTE.");
             }
-        }
 
-        if (!errores.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(errores);
+            // 2️⃣ Registrar los descuentos de stock en el outbox y consumir las reservas del pedido (misma
+            // transacción que el cambio de estado); OutboxStockDispatcher los envía a libro-service fuera de ella
+            LocalDateTime ahora = LocalDateTime.now();
+            List<OutboxStock> descuentos = pedido.getDetalles().stream()
+                    .map(detalle -> {
+                        OutboxStock descuento = new OutboxStock();
+                        descuento.setPedidoId(pedido.getId());
+                        descuento.setLibroId(detalle.getLibroId());
+                        descuento.setCantidad(detalle.getCantidad());
+                        descuento.setEstado(OutboxStock.PENDIENTE);
+                        descuento.setCreado(ahora);
+                        descuento.setProximoIntento(ahora);
+                        return descuento;
+                    })
+                    .toList();
+            outboxRepository.saveAll(descuentos);
+            reservaStockService.consumir(pedido.getId(),
+                    descuentos.stream().map(OutboxStock::getLibroId).collect(Collectors.toSet()));
+
+            // 3️⃣ Cambiar estado y guardar (la versión se comprueba al confirmar)
+            pedido.setEstado("FINALIZADO");
+            return ResponseEntity.ok(pedidoRepository.save(pedido));
+        });
+
+        if (!(resultado.getBody() instanceof Pedido pedido)) {
+            return resultado;
         }
 
-        // 4️⃣ Cambiar estado y guardar
-        pedido.setEstado("FINALIZADO");
-        pedidoRepository.save(pedido);
-
-        // 5️⃣ Construir respuesta DTO reutilizando tu método existente
+        // 4️⃣ Construir respuesta DTO, ya fuera de la transacción
         GetUserByIdResponse clienteSOAP = authService.obtenerUsuarioPorId(pedido.getClienteId());
-        PedidoResponseDTO response = construirPedidoResponseDTOAdmin(pedido, clienteSOAP);
+        PedidoResponseDTO response = construirPedidoResponseDTOAdmin(pedido, clienteSOAP,
+                librosParaMostrar(List.of(pedido)));
 
         return ResponseEntity.ok(response);
     }
 
-}
\ No newline at end of file
+}
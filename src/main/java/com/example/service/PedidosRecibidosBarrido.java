@@ -0,0 +1,40 @@
+package com.example.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.example.repository.IPedidoRepository;
+
+// Vuelve a encolar los pedidos que siguen RECIBIDO pasado un tiempo: cola llena, caída de la
+// instancia o libro-service no disponible cuando se procesaron. Los que siguen en la cola o
+// procesándose en esta instancia no se encolan otra vez.
+@Component
+public class PedidosRecibidosBarrido {
+
+    @Autowired
+    private IPedidoRepository pedidoRepository;
+
+    @Autowired
+    private PedidoService pedidoService;
+
+    @Value("${pedidos.async.reintento-tras:1m}")
+    private Duration reintentoTras;
+
+    @Value("${pedidos.async.tamanio-lote:100}")
+    private int tamanioLote;
+
+    @Scheduled(fixedDelayString = "${pedidos.async.barrido-ms:30000}")
+    public void reencolar() {
+        List<Integer> atascados = pedidoRepository.findIdsByEstadoAnteriorA("RECIBIDO",
+                LocalDateTime.now().minus(reintentoTras), Limit.of(tamanioLote));
+
+        atascados.forEach(pedidoService::encolarPedidoRecibido);
+    }
+}
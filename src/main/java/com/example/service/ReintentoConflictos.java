@@ -0,0 +1,72 @@
+package com.example.service;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+// Ejecuta un leer-modificar-escribir sobre Pedido en su propia transacción y, si otro proceso
+// cambió la fila entretanto (@Version), lo repite desde la lectura con backoff exponencial.
+// No debe llamarse dentro de otra transacción: el reintento necesita releer datos confirmados.
+@Component
+public class ReintentoConflictos {
+
+    private static final Logger log = LoggerFactory.getLogger(ReintentoConflictos.class);
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${pedidos.conflicto.max-intentos:4}")
+    private int maxIntentos;
+
+    @Value("${pedidos.conflicto.backoff-inicial:20ms}")
+    private Duration backoffInicial;
+
+    private TransactionTemplate transaccion;
+
+    @PostConstruct
+    void iniciar() {
+        transaccion = new TransactionTemplate(transactionManager);
+    }
+
+    public <T> T ejecutar(String operacion, Supplier<T> accion) {
+        for (int intento = 1;; intento++) {
+            try {
+                return transaccion.execute(status -> accion.get());
+            } catch (OptimisticLockingFailureException e) {
+                meterRegistry.counter("pedidos.conflictos", "operacion", operacion).increment();
+                if (intento >= maxIntentos) {
+                    throw new ConflictoConcurrenciaException(
+                            "El pedido fue modificado por otra operación al mismo tiempo. Intente nuevamente.", e);
+                }
+                log.debug("Conflicto de versión en {} (intento {}), reintentando", operacion, intento);
+                esperar(intento);
+            }
+        }
+    }
+
+    // 20ms, 40ms, 80ms... con jitter para que los procesos en conflicto no reintenten a la vez
+    private void esperar(int intento) {
+        long base = backoffInicial.toMillis() << Math.min(intento - 1, 10);
+        try {
+            Thread.sleep(base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConflictoConcurrenciaException("Reintento interrumpido", e);
+        }
+    }
+}
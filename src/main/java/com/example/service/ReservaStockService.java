@@ -0,0 +1,269 @@
+package com.example.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.DTO.LibroDTO;
+import com.example.model.ReservaStock;
+import com.example.repository.IReservaStockRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+// Libro de reservas de stock. Al generar un pedido PENDIENTE sus unidades quedan retenidas
+// durante stock.reserva.ttl; un pedido nuevo solo se acepta si cabe en (stock - retenido).
+// Al finalizar el pedido siguen retenidas (CONSUMIDA) hasta que el outbox envía el descuento a
+// libro-service: antes de eso el stock remoto todavía las incluye.
+// ContadorReservas decide en memoria (sin llamadas remotas ni bloqueos de BD) y la tabla
+// ReservaStock lo respalda para reconstruirlo al arrancar y para vencer las reservas.
+@Service
+public class ReservaStockService {
+
+    private static final Logger log = LoggerFactory.getLogger(ReservaStockService.class);
+
+    @Autowired
+    private IReservaStockRepository reservaRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${stock.reserva.ttl:15m}")
+    private Duration ttl;
+
+    @Value("${stock.reserva.tamanio-lote:200}")
+    private int tamanioLote;
+
+    @Value("${stock.reserva.franjas:64}")
+    private int franjas;
+
+    // Unidades retenidas por libro en reservas ACTIVA o CONSUMIDA
+    private ContadorReservas contador;
+
+    private TransactionTemplate transaccion;
+    private Counter rechazos;
+
+    @PostConstruct
+    void iniciar() {
+        transaccion = new TransactionTemplate(transactionManager);
+        rechazos = meterRegistry.counter("stock.reserva.rechazos");
+        contador = new ContadorReservas(franjas, meterRegistry);
+
+        reservaRepository.sumarRetenidasPorLibro().forEach(fila ->
+                contador.cargar(fila.getLibroId(), fila.getCantidad().intValue()));
+        log.info("Reservas de stock retenidas cargadas para {} libros", contador.librosConReservas());
+    }
+
+    // Retiene todas las cantidades o ninguna. Devuelve los errores por libro (vacío si se retuvo todo).
+    // libros trae el stock actual de cada libro consultado en libro-service.
+    public List<String> retener(Map<Integer, Integer> cantidades, Map<Integer, LibroDTO> libros) {
+        List<String> errores = contador.retener(cantidades, libros);
+        if (!errores.isEmpty()) {
+            rechazos.increment();
+        }
+        return errores;
+    }
+
+    // Deshace una retención en memoria que no llegó a registrarse (p. ej. falló el guardado del pedido)
+    public void soltar(Map<Integer, Integer> cantidades) {
+        contador.soltar(cantidades);
+    }
+
+    // Guarda las reservas ACTIVA de un pedido ya retenidas con retener(); debe llamarse dentro
+    // de la transacción que guarda el pedido
+    public void registrar(int pedidoId, Map<Integer, Integer> cantidades) {
+        LocalDateTime ahora = LocalDateTime.now();
+        List<ReservaStock> reservas = cantidades.entrySet().stream()
+                .map(linea -> {
+                    ReservaStock reserva = new ReservaStock();
+                    reserva.setPedidoId(pedidoId);
+                    reserva.setLibroId(linea.getKey());
+                    reserva.setCantidad(linea.getValue());
+                    reserva.setEstado(ReservaStock.ACTIVA);
+                    reserva.setCreada(ahora);
+                    reserva.setExpiraEn(ahora.plus(ttl));
+                    return reserva;
+                })
+                .toList();
+        reservaRepository.saveAll(reservas);
+    }
+
+    // Unidades por libro que retienen las reservas ACTIVA del pedido
+    public Map<Integer, Integer> retenidasPorPedido(int pedidoId) {
+        return sumarPorLibro(reservaRepository.findByPedidoIdAndEstado(pedidoId, ReservaStock.ACTIVA));
+    }
+
+    // Lleva las reservas ACTIVA de un pedido editado a las cantidades indicadas por libro (vacío: ninguna).
+    // Lo que aumenta se retiene con la misma regla de todo o nada que retener() y lo que baja o desaparece
+    // se libera. Devuelve los errores por libro (vacío si se ajustó); libros trae el stock actual de los
+    // libros que aumentan. Debe llamarse dentro de la transacción que guarda el pedido: si se revierte,
+    // la retención nueva se deshace y no se libera nada.
+    public List<String> ajustar(int pedidoId, Map<Integer, Integer> cantidades, Map<Integer, LibroDTO> libros) {
+        List<ReservaStock> activas = reservaRepository.findByPedidoIdAndEstado(pedidoId, ReservaStock.ACTIVA);
+        Map<Integer, Integer> retenidas = sumarPorLibro(activas);
+
+        Map<Integer, Integer> aumentos = diferencia(cantidades, retenidas);
+        if (!aumentos.isEmpty()) {
+            // Solo falta un libro si una reserva venció después de consultar el stock
+            List<String> sinStock = aumentos.keySet().stream()
+                    .filter(libroId -> !libros.containsKey(libroId))
+                    .map(libroId -> "No se pudo comprobar el stock del libro ID " + libroId + ". Intente nuevamente.")
+                    .toList();
+            if (!sinStock.isEmpty()) {
+                return sinStock;
+            }
+            List<String> errores = retener(aumentos, libros);
+            if (!errores.isEmpty()) {
+                return errores;
+            }
+            soltarSiSeRevierte(aumentos);
+            registrar(pedidoId, aumentos);
+        }
+
+        soltarAlConfirmar(reducir(activas, diferencia(retenidas, cantidades)));
+        return List.of();
+    }
+
+    // Al finalizar el pedido las reservas de los libros con descuento en el outbox pasan a CONSUMIDA sin
+    // salir del contador: el descuento real lo envía el outbox y hasta entonces libro-service sigue contando
+    // esas unidades. Las de libros sin descuento nunca llegarían a DESCONTADA: se liberan al confirmar.
+    public void consumir(int pedidoId, Collection<Integer> librosConDescuento) {
+        Map<Boolean, List<ReservaStock>> activas = reservaRepository
+                .findByPedidoIdAndEstado(pedidoId, ReservaStock.ACTIVA).stream()
+                .collect(Collectors.partitioningBy(reserva -> librosConDescuento.contains(reserva.getLibroId())));
+
+        cambiarEstado(activas.get(true), ReservaStock.ACTIVA, ReservaStock.CONSUMIDA);
+        soltarAlConfirmar(cambiarEstado(activas.get(false), ReservaStock.ACTIVA, ReservaStock.LIBERADA));
+    }
+
+    // El outbox ya envió el descuento del libro para el pedido: la reserva deja de retener unidades.
+    // Debe llamarse dentro de la transacción que marca las entradas como ENVIADO.
+    public void descontar(int pedidoId, int libroId) {
+        List<ReservaStock> consumidas = reservaRepository.findByPedidoIdAndEstado(pedidoId, ReservaStock.CONSUMIDA)
+                .stream()
+                .filter(reserva -> reserva.getLibroId() == libroId)
+                .toList();
+        soltarAlConfirmar(cambiarEstado(consumidas, ReservaStock.CONSUMIDA, ReservaStock.DESCONTADA));
+    }
+
+    // Libera las reservas de un pedido que ya no se va a finalizar (p. ej. eliminado)
+    public void liberar(int pedidoId) {
+        soltarAlConfirmar(cambiarEstado(reservaRepository.findByPedidoIdAndEstado(pedidoId, ReservaStock.ACTIVA),
+                ReservaStock.ACTIVA, ReservaStock.LIBERADA));
+    }
+
+    @Scheduled(fixedDelayString = "${stock.reserva.barrido-ms:15000}")
+    public void liberarVencidas() {
+        List<ReservaStock> vencidas;
+        do {
+            vencidas = transaccion.execute(status -> {
+                List<ReservaStock> lote = reservaRepository.findActivasVencidas(LocalDateTime.now(),
+                        Limit.of(tamanioLote));
+                soltarAlConfirmar(cambiarEstado(lote, ReservaStock.ACTIVA, ReservaStock.LIBERADA));
+                return lote;
+            });
+        } while (vencidas != null && vencidas.size() == tamanioLote);
+    }
+
+    // Mueve las reservas que siguen en el estado "desde" y devuelve las cantidades movidas por libro
+    private Map<Integer, Integer> cambiarEstado(List<ReservaStock> reservas, String desde, String hacia) {
+        Map<Integer, Integer> cambiadas = new HashMap<>();
+        transaccion.executeWithoutResult(status -> {
+            for (ReservaStock reserva : reservas) {
+                if (reservaRepository.cambiarEstado(reserva.getId(), desde, hacia) == 1) {
+                    cambiadas.merge(reserva.getLibroId(), reserva.getCantidad(), Integer::sum);
+                }
+            }
+        });
+        return cambiadas;
+    }
+
+    // Quita de las reservas ACTIVA las unidades indicadas por libro (reservas enteras o parte de una) y
+    // devuelve lo quitado. Una reserva que el barrido ya venció no se toca: ya salió del contador.
+    private Map<Integer, Integer> reducir(List<ReservaStock> activas, Map<Integer, Integer> reducciones) {
+        Map<Integer, Integer> pendientes = new HashMap<>(reducciones);
+        Map<Integer, Integer> quitadas = new HashMap<>();
+        for (ReservaStock reserva : activas) {
+            int pendiente = pendientes.getOrDefault(reserva.getLibroId(), 0);
+            if (pendiente == 0) {
+                continue;
+            }
+            int quitar = Math.min(pendiente, reserva.getCantidad());
+            int cambiadas = quitar == reserva.getCantidad()
+                    ? reservaRepository.cambiarEstado(reserva.getId(), ReservaStock.ACTIVA, ReservaStock.LIBERADA)
+                    : reservaRepository.reducirActiva(reserva.getId(), reserva.getCantidad() - quitar);
+            if (cambiadas == 1) {
+                pendientes.put(reserva.getLibroId(), pendiente - quitar);
+                quitadas.merge(reserva.getLibroId(), quitar, Integer::sum);
+            }
+        }
+        return quitadas;
+    }
+
+    private static Map<Integer, Integer> sumarPorLibro(List<ReservaStock> reservas) {
+        Map<Integer, Integer> porLibro = new HashMap<>();
+        reservas.forEach(reserva -> porLibro.merge(reserva.getLibroId(), reserva.getCantidad(), Integer::sum));
+        return porLibro;
+    }
+
+    // Lo que a supera a b en cada libro de a
+    private static Map<Integer, Integer> diferencia(Map<Integer, Integer> a, Map<Integer, Integer> b) {
+        Map<Integer, Integer> diferencia = new HashMap<>();
+        a.forEach((libroId, cantidad) -> {
+            int exceso = cantidad - b.getOrDefault(libroId, 0);
+            if (exceso > 0) {
+                diferencia.put(libroId, exceso);
+            }
+        });
+        return diferencia;
+    }
+
+    // Deshace en el contador una retención si la transacción que la registra no llega a confirmarse
+    private void soltarSiSeRevierte(Map<Integer, Integer> cantidades) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int estado) {
+                if (estado != STATUS_COMMITTED) {
+                    soltar(cantidades);
+                }
+            }
+        });
+    }
+
+    // Descuenta las cantidades del contador cuando la transacción confirma (si no hay transacción, en el momento)
+    private void soltarAlConfirmar(Map<Integer, Integer> cantidades) {
+        if (cantidades.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    soltar(cantidades);
+                }
+            });
+        } else {
+            soltar(cantidades);
+        }
+    }
+}
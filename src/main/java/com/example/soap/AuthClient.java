@@ -1,10 +1,15 @@
 package com.example.soap;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.springframework.ws.client.core.support.WebServiceGatewaySupport;
 import org.springframework.ws.soap.client.core.SoapActionCallback;
 
 import com.kirbook.auth.GetUserByIdRequest;
 import com.kirbook.auth.GetUserByIdResponse;
+import com.kirbook.auth.GetUsersByIdsRequest;
+import com.kirbook.auth.GetUsersByIdsResponse;
 import com.kirbook.auth.ValidateTokenRequest;
 import com.kirbook.auth.ValidateTokenResponse;
 
@@ -31,4 +36,15 @@ public class AuthClient extends WebServiceGatewaySupport {
 
         return (GetUserByIdResponse) resp;
     }
+
+    public List<GetUserByIdResponse> getUsersByIds(Collection<Long> ids) {
+        GetUsersByIdsRequest req = new GetUsersByIdsRequest();
+        req.getId().addAll(ids);
+
+        Object resp = getWebServiceTemplate()
+                .marshalSendAndReceive(req,
+                        new SoapActionCallback("http://kirbook.com/auth/GetUsersByIdsRequest"));
+
+        return ((GetUsersByIdsResponse) resp).getGetUserByIdResponse();
+    }
 }
\ No newline at end of file
@@ -1,26 +1,313 @@
 package com.example.soap;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.ws.client.WebServiceClientException;
+import org.springframework.ws.client.WebServiceTransportException;
+import org.springframework.ws.soap.client.SoapFaultClientException;
 
+import com.example.cache.CacheTTL;
+import com.example.resiliencia.DependenciaNoDisponibleException;
+import com.example.resiliencia.ProteccionRemota;
+import com.example.security.JwtVerificador;
 import com.kirbook.auth.GetUserByIdResponse;
 import com.kirbook.auth.ValidateTokenResponse;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
 @Service
 public class AuthService {
 
     @Autowired
     private AuthClient authClient;
 
+    @Autowired
+    @Qualifier("proteccionAuth")
+    private ProteccionRemota proteccion;
+
+    @Autowired
+    @Qualifier("authExecutor")
+    private AsyncTaskExecutor authExecutor;
+
+    @Autowired
+    private JwtVerificador jwtVerificador;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${auth.jwt.revision.intervalo:5m}")
+    private Duration intervaloRevision;
+
+    // Fracción de validaciones locales que además se confirman con auth-service (0 = ninguna)
+    @Value("${auth.jwt.revision.muestreo:0.01}")
+    private double muestreoRevision;
+
+    @Value("${auth.cache.token.max-entradas:10000}")
+    private int tokenMaxEntradas;
+
+    // Un token revocado en auth-service puede seguir aceptándose hasta este tiempo
+    @Value("${auth.cache.token.ttl:60s}")
+    private Duration tokenTtl;
+
+    // Los tokens inválidos se recuerdan menos tiempo
+    @Value("${auth.cache.token.ttl-invalido:5s}")
+    private Duration tokenTtlInvalido;
+
+    @Value("${auth.cache.usuario.max-entradas:5000}")
+    private int usuarioMaxEntradas;
+
+    @Value("${auth.cache.usuario.ttl:5m}")
+    private Duration usuarioTtl;
+
+    @Value("${auth.cache.usuario.ttl-inexistente:30s}")
+    private Duration usuarioTtlInexistente;
+
+    @Value("${auth.usuarios-lote.tamanio:200}")
+    private int tamanioLoteUsuarios;
+
+    @Value("${auth.usuarios-lote.reintentar-tras:10m}")
+    private Duration reintentarLoteTras;
+
+    // 0 mientras GetUsersByIds funcione; si auth-service no la soporta, hasta cuándo no reintentarla
+    private volatile long loteNoSoportadoHastaNanos;
+
+    // Clave: SHA-256 del token, para no guardar tokens en claro en memoria
+    private CacheTTL<String, ValidateTokenResponse> cacheTokens;
+
+    private CacheTTL<Long, GetUserByIdResponse> cacheUsuarios;
+
+    // Modo JWT local: última revisión de revocación por token y tokens que auth-service dio por revocados
+    private CacheTTL<String, Boolean> revisionesTokens;
+    private CacheTTL<String, Boolean> tokensRevocados;
+
+    @PostConstruct
+    void iniciarCaches() {
+        cacheTokens = new CacheTTL<>(tokenMaxEntradas);
+        cacheUsuarios = new CacheTTL<>(usuarioMaxEntradas);
+        revisionesTokens = new CacheTTL<>(tokenMaxEntradas);
+        tokensRevocados = new CacheTTL<>(tokenMaxEntradas);
+
+        cacheTokens.registrarMetricas(meterRegistry, "auth.tokens");
+        cacheUsuarios.registrarMetricas(meterRegistry, "auth.usuarios");
+    }
+
     public ValidateTokenResponse validar(String token) {
-        return authClient.validateToken(token);
+        String clave = hashToken(token);
+
+        if (jwtVerificador.isHabilitado()) {
+            ValidateTokenResponse local = validarLocalmente(token, clave);
+            if (local != null) {
+                return local;
+            }
+        }
+
+        return validarRemoto(token, clave);
+    }
+
+    // Modo local: firma y expiración se comprueban aquí. auth-service solo se consulta para detectar
+    // revocaciones, una vez por token cada auth.jwt.revision.intervalo y en una muestra aleatoria.
+    private ValidateTokenResponse validarLocalmente(String token, String clave) {
+        if (tokensRevocados.obtener(clave) != null) {
+            ValidateTokenResponse revocado = new ValidateTokenResponse();
+            revocado.setValid(false);
+            revocado.setMessage("Token revocado");
+            return revocado;
+        }
+
+        ValidateTokenResponse local = jwtVerificador.verificar(token);
+        if (local == null || !local.isValid() || !requiereRevision(clave)) {
+            return local;
+        }
+
+        ValidateTokenResponse remoto;
+        try {
+            remoto = validarRemoto(token, clave);
+        } catch (RuntimeException e) {
+            // auth-service no disponible: vale la verificación local y se revisa en la próxima petición
+            return local;
+        }
+
+        if (remoto != null && !remoto.isValid()) {
+            // Recordar la revocación hasta que el token expire por sí mismo
+            tokensRevocados.guardar(clave, Boolean.TRUE,
+                    Duration.ofSeconds(Math.max(1, jwtVerificador.segundosRestantes(token))));
+            return remoto;
+        }
+        revisionesTokens.guardar(clave, Boolean.TRUE, intervaloRevision);
+        return local;
+    }
+
+    private boolean requiereRevision(String clave) {
+        return revisionesTokens.obtener(clave) == null
+                || ThreadLocalRandom.current().nextDouble() < muestreoRevision;
+    }
+
+    private ValidateTokenResponse validarRemoto(String token, String clave) {
+        ValidateTokenResponse cacheada = cacheTokens.obtener(clave);
+        if (cacheada != null) {
+            return cacheada;
+        }
+
+        ValidateTokenResponse resp = proteccion.ejecutar(() -> authClient.validateToken(token));
+        if (resp != null) {
+            cacheTokens.guardar(clave, resp, resp.isValid() ? tokenTtl : tokenTtlInvalido);
+        }
+        return resp;
     }
 
     public GetUserByIdResponse buscarUsuarioPorId(Long id) {
-        return authClient.getUserById(id);
+        return obtenerUsuario(id);
     }
 
     public GetUserByIdResponse obtenerUsuarioPorId(int id) {
-        return authClient.getUserById((long) id);
+        return obtenerUsuario((long) id);
+    }
+
+    // Resuelve cada id distinto una sola vez: primero en caché, luego con GetUsersByIds en bloques
+    // y, si auth-service no soporta la operación en lote, con consultas individuales en paralelo.
+    // Si auth-service falla o no está disponible, los usuarios que falten no aparecen en el mapa
+    // (quien llama muestra solo el id del cliente).
+    public Map<Integer, GetUserByIdResponse> obtenerUsuariosPorIds(Collection<Integer> ids) {
+        Map<Integer, GetUserByIdResponse> usuarios = new HashMap<>();
+        List<Integer> faltantes = new ArrayList<>();
+
+        for (Integer id : new LinkedHashSet<>(ids)) {
+            GetUserByIdResponse cacheado = cacheUsuarios.obtener(id.longValue());
+            if (cacheado != null) {
+                usuarios.put(id, cacheado);
+            } else {
+                faltantes.add(id);
+            }
+        }
+
+        if (!faltantes.isEmpty() && loteDisponible()) {
+            try {
+                for (int desde = 0; desde < faltantes.size(); desde += tamanioLoteUsuarios) {
+                    List<Integer> bloque = faltantes.subList(desde,
+                            Math.min(desde + tamanioLoteUsuarios, faltantes.size()));
+                    usuarios.putAll(consultarUsuariosEnLote(bloque));
+                }
+                return usuarios;
+            } catch (DependenciaNoDisponibleException e) {
+                // Circuito abierto o sin cupo: las consultas individuales tampoco pasarían
+                return usuarios;
+            } catch (WebServiceClientException e) {
+                if (!operacionNoSoportada(e)) {
+                    // Fallo puntual de auth-service: no es motivo para dejar de usar el lote ni para
+                    // repetir la consulta id por id contra un servicio con problemas
+                    return usuarios;
+                }
+                // auth-service sin GetUsersByIds: no se vuelve a intentar hasta pasado un tiempo
+                loteNoSoportadoHastaNanos = System.nanoTime() + reintentarLoteTras.toNanos();
+            }
+        }
+
+        Map<Integer, CompletableFuture<GetUserByIdResponse>> pendientes = new LinkedHashMap<>();
+        for (Integer id : faltantes) {
+            if (!usuarios.containsKey(id)) {
+                pendientes.put(id, CompletableFuture.supplyAsync(
+                        () -> consultarUsuario(id.longValue()), authExecutor));
+            }
+        }
+
+        pendientes.forEach((id, consulta) -> {
+            try {
+                GetUserByIdResponse usuario = esperar(consulta);
+                if (usuario != null) {
+                    usuarios.put(id, usuario);
+                }
+            } catch (DependenciaNoDisponibleException | WebServiceClientException e) {
+                // Se muestra solo el id de este cliente
+            }
+        });
+        return usuarios;
+    }
+
+    // Sin la operación en lote Spring-WS responde 404 (ningún endpoint para la petición) o, según
+    // la configuración de auth-service, un fault de endpoint no encontrado
+    private static boolean operacionNoSoportada(WebServiceClientException e) {
+        if (e instanceof WebServiceTransportException) {
+            return e.getMessage() != null && e.getMessage().contains("[404]");
+        }
+        if (e instanceof SoapFaultClientException fault) {
+            String motivo = fault.getFaultStringOrReason();
+            return motivo != null && motivo.toLowerCase(Locale.ROOT)
+                    .matches("(?s).*(no endpoint|endpoint mapping|unknown operation|operation not supported).*");
+        }
+        return false;
+    }
+
+    private boolean loteDisponible() {
+        long hasta = loteNoSoportadoHastaNanos;
+        return hasta == 0 || hasta - System.nanoTime() <= 0;
+    }
+
+    private Map<Integer, GetUserByIdResponse> consultarUsuariosEnLote(List<Integer> ids) {
+        List<Long> idsLong = ids.stream().map(Integer::longValue).toList();
+        List<GetUserByIdResponse> respuesta = proteccion.ejecutar(() -> authClient.getUsersByIds(idsLong));
+
+        Map<Integer, GetUserByIdResponse> usuarios = new HashMap<>();
+        for (GetUserByIdResponse usuario : respuesta) {
+            if (usuario == null || usuario.getId() == null) {
+                continue;
+            }
+            cacheUsuarios.guardar(usuario.getId(), usuario, usuario.isExists() ? usuarioTtl : usuarioTtlInexistente);
+            usuarios.put(usuario.getId().intValue(), usuario);
+        }
+        return usuarios;
+    }
+
+    private GetUserByIdResponse obtenerUsuario(long id) {
+        GetUserByIdResponse cacheado = cacheUsuarios.obtener(id);
+        return cacheado != null ? cacheado : consultarUsuario(id);
+    }
+
+    private GetUserByIdResponse consultarUsuario(long id) {
+        GetUserByIdResponse resp = proteccion.ejecutar(() -> authClient.getUserById(id));
+        if (resp != null) {
+            cacheUsuarios.guardar(id, resp, resp.isExists() ? usuarioTtl : usuarioTtlInexistente);
+        }
+        return resp;
+    }
+
+    private static <T> T esperar(CompletableFuture<T> consulta) {
+        try {
+            return consulta.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw e;
+        }
+    }
+
+    private static String hashToken(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,127 @@
+package com.example.soap;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.springframework.oxm.Marshaller;
+import org.springframework.oxm.MarshallingFailureException;
+import org.springframework.oxm.Unmarshaller;
+import org.springframework.oxm.UnmarshallingFailureException;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+
+// Marshaller/Unmarshaller para el cliente SOAP con:
+// - un JAXBContext creado al arrancar y limitado a las clases que se usan
+// - instancias de jakarta.xml.bind.Marshaller/Unmarshaller reutilizadas (no son thread-safe,
+//   así que cada llamada toma una del pool y la devuelve al terminar)
+public class JaxbMarshallerPool implements Marshaller, Unmarshaller {
+
+    private final JAXBContext contexto;
+    private final Set<Class<?>> clases;
+    private final int maxInactivos;
+
+    private final Queue<jakarta.xml.bind.Marshaller> marshallers = new ConcurrentLinkedQueue<>();
+    private final Queue<jakarta.xml.bind.Unmarshaller> unmarshallers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger marshallersInactivos = new AtomicInteger();
+    private final AtomicInteger unmarshallersInactivos = new AtomicInteger();
+
+    public JaxbMarshallerPool(int maxInactivos, Class<?>... clases) {
+        this.maxInactivos = maxInactivos;
+        this.clases = Set.of(clases);
+        try {
+            this.contexto = JAXBContext.newInstance(clases);
+        } catch (JAXBException e) {
+            throw new IllegalStateException("No se pudo crear el contexto JAXB", e);
+        }
+        calentar(clases);
+    }
+
+    @Override
+    public boolean supports(Class<?> clazz) {
+        return clases.contains(clazz);
+    }
+
+    @Override
+    public void marshal(Object graph, Result result) throws IOException {
+        jakarta.xml.bind.Marshaller marshaller = tomarMarshaller();
+        try {
+            marshaller.marshal(graph, result);
+        } catch (JAXBException e) {
+            throw new MarshallingFailureException("Error al serializar " + graph.getClass().getSimpleName(), e);
+        } finally {
+            devolver(marshallers, marshallersInactivos, marshaller);
+        }
+    }
+
+    @Override
+    public Object unmarshal(Source source) throws IOException {
+        jakarta.xml.bind.Unmarshaller unmarshaller = tomarUnmarshaller();
+        try {
+            return unmarshaller.unmarshal(source);
+        } catch (JAXBException e) {
+            throw new UnmarshallingFailureException("Error al deserializar la respuesta SOAP", e);
+        } finally {
+            devolver(unmarshallers, unmarshallersInactivos, unmarshaller);
+        }
+    }
+
+    private jakarta.xml.bind.Marshaller tomarMarshaller() {
+        jakarta.xml.bind.Marshaller marshaller = marshallers.poll();
+        if (marshaller != null) {
+            marshallersInactivos.decrementAndGet();
+            return marshaller;
+        }
+        try {
+            return contexto.createMarshaller();
+        } catch (JAXBException e) {
+            throw new MarshallingFailureException("No se pudo crear el marshaller JAXB", e);
+        }
+    }
+
+    private jakarta.xml.bind.Unmarshaller tomarUnmarshaller() {
+        jakarta.xml.bind.Unmarshaller unmarshaller = unmarshallers.poll();
+        if (unmarshaller != null) {
+            unmarshallersInactivos.decrementAndGet();
+            return unmarshaller;
+        }
+        try {
+            return contexto.createUnmarshaller();
+        } catch (JAXBException e) {
+            throw new UnmarshallingFailureException("No se pudo crear el unmarshaller JAXB", e);
+        }
+    }
+
+    // Si ya hay suficientes instancias libres la sobrante se descarta
+    private <T> void devolver(Queue<T> pool, AtomicInteger inactivos, T instancia) {
+        if (inactivos.incrementAndGet() <= maxInactivos) {
+            pool.offer(instancia);
+        } else {
+            inactivos.decrementAndGet();
+        }
+    }
+
+    // Ida y vuelta de una instancia vacía de cada tipo para que JAXB inicialice sus estructuras
+    // internas al arrancar y no en la primera petición
+    private void calentar(Class<?>... tipos) {
+        for (Class<?> tipo : tipos) {
+            try {
+                StringWriter xml = new StringWriter();
+                marshal(tipo.getDeclaredConstructor().newInstance(), new StreamResult(xml));
+                unmarshal(new StreamSource(new StringReader(xml.toString())));
+            } catch (ReflectiveOperationException | IOException e) {
+                throw new IllegalStateException("No se pudo inicializar JAXB para " + tipo.getName(), e);
+            }
+        }
+    }
+}
@@ -1,26 +1,92 @@
 package com.example.soap;
 
+import java.time.Duration;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.oxm.jaxb.Jaxb2Marshaller;
+import org.springframework.ws.transport.http.HttpComponents5MessageSender;
+
+import com.kirbook.auth.GetUserByIdRequest;
+import com.kirbook.auth.GetUserByIdResponse;
+import com.kirbook.auth.GetUsersByIdsRequest;
+import com.kirbook.auth.GetUsersByIdsResponse;
+import com.kirbook.auth.ValidateTokenRequest;
+import com.kirbook.auth.ValidateTokenResponse;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
 
 @Configuration
 public class SoapConfig {
 
+    // Solo los tipos de auth.xsd (com.kirbook.auth) que usa AuthClient; el contexto se crea al arrancar
     @Bean
-    public Jaxb2Marshaller marshaller() {
-        Jaxb2Marshaller m = new Jaxb2Marshaller();
-        // paquete generado por JAXB desde auth.xsd — según tu ValidateTokenResponse.java anterior: com.kirbook.auth
-        m.setContextPath("com.kirbook.auth");
-        return m;
+    public JaxbMarshallerPool marshaller(@Value("${auth.soap.marshaller.max-inactivos:32}") int maxInactivos) {
+        return new JaxbMarshallerPool(maxInactivos,
+                ValidateTokenRequest.class, ValidateTokenResponse.class,
+                GetUserByIdRequest.class, GetUserByIdResponse.class,
+                GetUsersByIdsRequest.class, GetUsersByIdsResponse.class);
+    }
+
+    // Pool de conexiones keep-alive hacia auth-service: evita abrir una conexión TCP por cada validación
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager authConnectionManager(
+            @Value("${auth.soap.pool.max-total:50}") int maxTotal,
+            @Value("${auth.soap.pool.max-por-ruta:50}") int maxPorRuta,
+            @Value("${auth.soap.pool.time-to-live:5m}") Duration timeToLive,
+            @Value("${auth.soap.connect-timeout:2s}") Duration connectTimeout,
+            @Value("${auth.soap.read-timeout:3s}") Duration readTimeout,
+            MeterRegistry meterRegistry) {
+        PoolingHttpClientConnectionManager pool = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPorRuta)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeout.toMillis()))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeout.toMillis()))
+                        .setTimeToLive(TimeValue.ofMilliseconds(timeToLive.toMillis()))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+
+        // Métricas httpcomponents.httpclient.pool.* (conexiones en uso, libres, pendientes, máximo)
+        new PoolingHttpClientConnectionManagerMetricsBinder(pool, "auth-soap").bindTo(meterRegistry);
+        return pool;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient authHttpClient(PoolingHttpClientConnectionManager authConnectionManager,
+            @Value("${auth.soap.pool.max-inactividad:30s}") Duration maxInactividad,
+            @Value("${auth.soap.pool.espera-conexion:500ms}") Duration esperaConexion,
+            @Value("${auth.soap.read-timeout:3s}") Duration readTimeout) {
+        return HttpClients.custom()
+                .setConnectionManager(authConnectionManager)
+                // WebServiceTemplate ya fija Content-Length/Transfer-Encoding; HttpClient fallaría al repetirlos
+                .addRequestInterceptorFirst(new HttpComponents5MessageSender.RemoveSoapHeadersInterceptor())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(maxInactividad.toMillis()))
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(esperaConexion.toMillis()))
+                        .setResponseTimeout(Timeout.ofMilliseconds(readTimeout.toMillis()))
+                        .build())
+                .build();
     }
 
     @Bean
-    public AuthClient authClient(Jaxb2Marshaller marshaller) {
+    public AuthClient authClient(JaxbMarshallerPool marshaller, CloseableHttpClient authHttpClient) {
         AuthClient client = new AuthClient();
         client.setDefaultUri("http://localhost:8081/ws"); // <- tu auth service endpoint
         client.setMarshaller(marshaller);
         client.setUnmarshaller(marshaller);
+        client.setMessageSender(new HttpComponents5MessageSender(authHttpClient));
         return client;
     }
-}
\ No newline at end of file
+}
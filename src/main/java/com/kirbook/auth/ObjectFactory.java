@@ -100,4 +100,20 @@ public class ObjectFactory {
         return new GetUserByIdResponse();
     }
 
+    /**
+     * Create an instance of {@link GetUsersByIdsRequest }
+     * 
+     */
+    public GetUsersByIdsRequest createGetUsersByIdsRequest() {
+        return new GetUsersByIdsRequest();
+    }
+
+    /**
+     * Create an instance of {@link GetUsersByIdsResponse }
+     * 
+     */
+    public GetUsersByIdsResponse createGetUsersByIdsResponse() {
+        return new GetUsersByIdsResponse();
+    }
+
 }
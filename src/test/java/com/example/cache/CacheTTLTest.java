@@ -0,0 +1,85 @@
+package com.example.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class CacheTTLTest {
+
+	private final AtomicLong reloj = new AtomicLong();
+
+	@Test
+	void laEntradaExpiraAlCumplirSuTtl() {
+		CacheTTL<String, String> cache = new CacheTTL<>(10, reloj::get);
+		cache.guardar("a", "uno", Duration.ofSeconds(60));
+
+		avanzar(Duration.ofSeconds(59));
+		assertEquals("uno", cache.obtener("a"));
+
+		avanzar(Duration.ofSeconds(1));
+		assertNull(cache.obtener("a"));
+		// Vencida, pero disponible como respaldo
+		assertEquals("uno", cache.obtenerAunqueExpirado("a"));
+	}
+
+	@Test
+	void lasRespuestasNegativasUsanSuPropioTtl() {
+		CacheTTL<String, Boolean> cache = new CacheTTL<>(10, reloj::get);
+		cache.guardar("valido", true, Duration.ofSeconds(60));
+		cache.guardar("invalido", false, Duration.ofSeconds(5));
+
+		avanzar(Duration.ofSeconds(5));
+		assertNull(cache.obtener("invalido"));
+		assertEquals(true, cache.obtener("valido"));
+
+		// TTL cero o negativo: no se guarda
+		cache.guardar("cero", true, Duration.ZERO);
+		cache.guardar("negativo", true, Duration.ofSeconds(-1));
+		assertNull(cache.obtenerAunqueExpirado("cero"));
+		assertNull(cache.obtenerAunqueExpirado("negativo"));
+	}
+
+	@Test
+	void desalojaLaMenosUsadaRecientemente() {
+		CacheTTL<Integer, String> cache = new CacheTTL<>(2, reloj::get);
+		cache.guardar(1, "uno", Duration.ofMinutes(1));
+		cache.guardar(2, "dos", Duration.ofMinutes(1));
+
+		// Usar 1 deja a 2 como la menos reciente
+		cache.obtener(1);
+		cache.guardar(3, "tres", Duration.ofMinutes(1));
+
+		assertNull(cache.obtenerAunqueExpirado(2));
+		assertEquals("uno", cache.obtener(1));
+		assertEquals("tres", cache.obtener(3));
+		assertEquals(1, cache.estadisticas().desalojos());
+		assertEquals(2, cache.estadisticas().tamanio());
+	}
+
+	@Test
+	void publicaLasEstadisticasEnMicrometer() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		CacheTTL<Integer, String> cache = new CacheTTL<>(1, reloj::get);
+		cache.registrarMetricas(registry, "prueba");
+
+		cache.guardar(1, "uno", Duration.ofMinutes(1));
+		cache.obtener(1);
+		cache.obtener(2);
+		cache.guardar(2, "dos", Duration.ofMinutes(1));
+
+		assertEquals(1.0, registry.get("cache.gets").tags("cache", "prueba", "result", "hit").functionCounter().count());
+		assertEquals(1.0, registry.get("cache.gets").tags("cache", "prueba", "result", "miss").functionCounter().count());
+		assertEquals(1.0, registry.get("cache.evictions").tag("cache", "prueba").functionCounter().count());
+		assertEquals(1.0, registry.get("cache.size").tag("cache", "prueba").gauge().value());
+	}
+
+	private void avanzar(Duration tiempo) {
+		reloj.addAndGet(tiempo.toNanos());
+	}
+}
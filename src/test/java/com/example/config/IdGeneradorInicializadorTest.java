@@ -0,0 +1,71 @@
+package com.example.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.model.Pedido;
+
+import jakarta.persistence.EntityManager;
+
+// Filas ya existentes con ids altos (de la época IDENTITY): el contador de id_generador se adelanta
+// por encima del máximo y los ids nuevos no chocan con ellas
+@DataJpaTest
+// id_generador se actualiza en su propia transacción: la prueba no puede dejar filas bloqueadas
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class IdGeneradorInicializadorTest {
+
+	// Solo las entidades y el inicializador: la aplicación completa registra clientes Feign y tareas programadas
+	@SpringBootConfiguration
+	@EntityScan(basePackageClasses = Pedido.class)
+	@Import(IdGeneradorInicializador.class)
+	static class Configuracion {
+	}
+
+	@Autowired
+	private IdGeneradorInicializador inicializador;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	void adelantaElContadorPorEncimaDelIdMaximo() {
+		jdbcTemplate.update("insert into pedido (id, cliente_id, version) values (?, ?, ?)", 1000, 1, 0);
+
+		inicializador.inicializar();
+		assertEquals(1051L, siguienteValor("pedido"));
+
+		// Volver a ejecutarlo no lo mueve (ni hacia atrás)
+		inicializador.inicializar();
+		assertEquals(1051L, siguienteValor("pedido"));
+
+		Pedido pedido = new Pedido();
+		pedido.setClienteId(2);
+		pedido.setEstado("PENDIENTE");
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> entityManager.persist(pedido));
+
+		assertTrue(pedido.getId() > 1000, "Id generado: " + pedido.getId());
+	}
+
+	private Long siguienteValor(String entidad) {
+		return jdbcTemplate.queryForObject("select siguiente_valor from id_generador where entidad = ?",
+				Long.class, entidad);
+	}
+}
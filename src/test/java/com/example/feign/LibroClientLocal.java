@@ -0,0 +1,140 @@
+package com.example.feign;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.http.ResponseEntity;
+
+import com.example.DTO.LibroDTO;
+import com.example.DTO.MovimientoStockDTO;
+
+import feign.FeignException;
+import feign.Request;
+
+// Sustituto en memoria de libro-service para pruebas: no hace llamadas HTTP
+// y cuenta las consultas para poder verificar cuántos round-trips haría el cliente real.
+// Como el cliente Feign real, un libro o endpoint GET inexistente lanza FeignException.NotFound.
+public class LibroClientLocal implements LibroClient {
+
+    private final Map<Integer, LibroDTO> libros = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicInteger> consultasPorLibro = new ConcurrentHashMap<>();
+    private final AtomicInteger consultasIndividuales = new AtomicInteger();
+    private final AtomicInteger consultasEnLote = new AtomicInteger();
+    private final AtomicInteger restasEnLote = new AtomicInteger();
+    private final Set<String> referenciasAplicadas = ConcurrentHashMap.newKeySet();
+    private volatile boolean conConsultaEnLote = true;
+    private volatile boolean conRestaEnLote = true;
+
+    public LibroClientLocal agregar(LibroDTO libro) {
+        libros.put(libro.getId(), libro);
+        return this;
+    }
+
+    // Simula un libro-service sin GET /por-ids
+    public LibroClientLocal sinConsultaEnLote() {
+        conConsultaEnLote = false;
+        return this;
+    }
+
+    // Simula un libro-service sin PUT /restar-stock
+    public LibroClientLocal sinRestaEnLote() {
+        conRestaEnLote = false;
+        return this;
+    }
+
+    public int getConsultasIndividuales() {
+        return consultasIndividuales.get();
+    }
+
+    public int getConsultasEnLote() {
+        return consultasEnLote.get();
+    }
+
+    public int getRestasEnLote() {
+        return restasEnLote.get();
+    }
+
+    // Veces que el libro se pidió, sumando consultas individuales y en lote
+    public int getConsultasDeLibro(int id) {
+        AtomicInteger consultas = consultasPorLibro.get(id);
+        return consultas == null ? 0 : consultas.get();
+    }
+
+    @Override
+    public LibroDTO obtenerLibroPorId(int id) {
+        consultasIndividuales.incrementAndGet();
+        contarConsulta(id);
+        LibroDTO libro = libros.get(id);
+        if (libro == null) {
+            throw noEncontrado("/libros/" + id);
+        }
+        return libro;
+    }
+
+    @Override
+    public List<LibroDTO> obtenerLibrosPorIds(Collection<Integer> ids) {
+        consultasEnLote.incrementAndGet();
+        if (!conConsultaEnLote) {
+            throw noEncontrado("/libros/por-ids");
+        }
+        ids.forEach(this::contarConsulta);
+        return ids.stream()
+                .map(libros::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    @Override
+    public ResponseEntity<?> actualizarLibro(String token, int id, LibroDTO libroDTO) {
+        libros.put(id, libroDTO);
+        return ResponseEntity.ok(libroDTO);
+    }
+
+    // Como libro-service: una referencia ya aplicada no vuelve a descontar
+    @Override
+    public synchronized ResponseEntity<Void> restarStock(int id, int cantidad, String referencia) {
+        LibroDTO libro = libros.get(id);
+        if (libro == null) {
+            throw noEncontrado("/libros/restar-stock/" + id + "/" + cantidad);
+        }
+        if (referenciasAplicadas.add(referencia)) {
+            libro.setStock(libro.getStock() - cantidad);
+        }
+        return ResponseEntity.ok().build();
+    }
+
+    // Igual que el endpoint real: todo o nada. Sin el endpoint la ruta cae en GET /{id} y responde 405
+    @Override
+    public synchronized ResponseEntity<Void> restarStockLote(List<MovimientoStockDTO> movimientos) {
+        restasEnLote.incrementAndGet();
+        if (!conRestaEnLote) {
+            throw new FeignException.MethodNotAllowed("[405 Method Not Allowed] /libros/restar-stock",
+                    request(Request.HttpMethod.PUT, "/libros/restar-stock"), null, Map.of());
+        }
+        boolean todosExisten = movimientos.stream().allMatch(m -> libros.containsKey(m.getLibroId()));
+        if (!todosExisten) {
+            throw noEncontrado("/libros/restar-stock");
+        }
+        movimientos.forEach(m -> restarStock(m.getLibroId(), m.getCantidad(), m.getReferencia()));
+        return ResponseEntity.ok().build();
+    }
+
+    private void contarConsulta(int id) {
+        consultasPorLibro.computeIfAbsent(id, libroId -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private static FeignException noEncontrado(String ruta) {
+        return new FeignException.NotFound("[404 Not Found] " + ruta, request(Request.HttpMethod.GET, ruta), null,
+                Map.of());
+    }
+
+    private static Request request(Request.HttpMethod metodo, String ruta) {
+        return Request.create(metodo, "http://localhost:8082" + ruta, Map.of(), null, StandardCharsets.UTF_8, null);
+    }
+}
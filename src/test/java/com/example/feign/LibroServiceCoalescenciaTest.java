@@ -0,0 +1,82 @@
+package com.example.feign;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.DTO.LibroDTO;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// N consultas simultáneas del mismo libro: una sola llamada a libro-service y N-1 coalescidas
+class LibroServiceCoalescenciaTest {
+
+	private static final int LLAMADORES = 16;
+
+	@Test
+	void lasConsultasSimultaneasDelMismoLibroSeCoalescen() throws Exception {
+		CountDownLatch soltar = new CountDownLatch(1);
+		LibroClientLocal libroClient = new LibroClientLocal() {
+			@Override
+			public LibroDTO obtenerLibroPorId(int id) {
+				LibroDTO libro = super.obtenerLibroPorId(id);
+				try {
+					soltar.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return libro;
+			}
+		};
+		LibroDTO libro = new LibroDTO();
+		libro.setId(1);
+		libro.setTitulo("Libro 1");
+		libroClient.agregar(libro);
+
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		LibroService libroService = LibroServicePruebas.crear(libroClient, registry);
+
+		ExecutorService hilos = Executors.newFixedThreadPool(LLAMADORES);
+		try {
+			List<Future<LibroDTO>> resultados = new ArrayList<>();
+			for (int i = 0; i < LLAMADORES; i++) {
+				resultados.add(hilos.submit(() -> libroService.obtenerLibro(1)));
+			}
+
+			// La primera consulta sigue bloqueada hasta que todos los demás se hayan unido a ella
+			long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (coalescidas(registry) < LLAMADORES - 1 && System.nanoTime() < limite) {
+				Thread.sleep(5);
+			}
+			soltar.countDown();
+
+			for (Future<LibroDTO> resultado : resultados) {
+				assertEquals(1, resultado.get(10, TimeUnit.SECONDS).getId());
+			}
+		} finally {
+			hilos.shutdownNow();
+		}
+
+		assertEquals(1, libroClient.getConsultasIndividuales());
+		assertEquals(LLAMADORES - 1, coalescidas(registry));
+
+		// Terminada la consulta no queda nada compartido: la siguiente vuelve a libro-service
+		assertEquals(1, libroService.obtenerLibro(1).getId());
+		assertEquals(2, libroClient.getConsultasIndividuales());
+		assertEquals(LLAMADORES - 1, coalescidas(registry));
+	}
+
+	private static double coalescidas(SimpleMeterRegistry registry) {
+		Counter contador = registry.find("libros.consulta.coalescidas").tag("libroId", "1").counter();
+		return contador == null ? 0 : contador.count();
+	}
+}
@@ -0,0 +1,28 @@
+package com.example.feign;
+
+import java.time.Duration;
+
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import com.example.resiliencia.ProteccionRemota;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// LibroService sin contexto de Spring para las pruebas, con la configuración por defecto de application.properties
+public final class LibroServicePruebas {
+
+	private LibroServicePruebas() {
+	}
+
+	public static LibroService crear(LibroClient libroClient) {
+		return crear(libroClient, new SimpleMeterRegistry());
+	}
+
+	public static LibroService crear(LibroClient libroClient, MeterRegistry registry) {
+		ProteccionRemota proteccion = new ProteccionRemota("libro-service", 32, Duration.ofMillis(100), 5,
+				Duration.ofSeconds(30), LibroService::esFallaTransitoria);
+		return new LibroService(libroClient, proteccion, new SimpleAsyncTaskExecutor(), registry, 2000,
+				Duration.ofMinutes(2), Duration.ofMinutes(10));
+	}
+}
@@ -0,0 +1,81 @@
+package com.example.feign;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.DTO.LibroDTO;
+import com.example.DTO.MovimientoStockDTO;
+
+import feign.FeignException;
+
+// Descuentos del outbox contra libro-service en memoria: un libro inexistente se propaga como 4xx y
+// sin el endpoint en lote cada línea se envía con su referencia
+class LibroServiceRestaStockTest {
+
+	private LibroClientLocal libroClient;
+	private LibroService libroService;
+
+	@BeforeEach
+	void preparar() {
+		libroClient = new LibroClientLocal().agregar(libro(1)).agregar(libro(2));
+		libroService = LibroServicePruebas.crear(libroClient);
+	}
+
+	@Test
+	void unLibroInexistenteEnElLoteSePropagaComo404SinAplicarNada() {
+		List<MovimientoStockDTO> lote = List.of(movimiento(1, 2, "outbox-1"), movimiento(99, 1, "outbox-2"));
+
+		assertThrows(FeignException.NotFound.class, () -> libroService.restarStockLote(lote));
+		assertEquals(10, libroClient.obtenerLibroPorId(1).getStock());
+
+		// El 404 no marca el endpoint en lote como no soportado
+		libroService.restarStockLote(List.of(movimiento(1, 2, "outbox-3")));
+		assertEquals(2, libroClient.getRestasEnLote());
+		assertEquals(8, libroClient.obtenerLibroPorId(1).getStock());
+	}
+
+	@Test
+	void sinEndpointEnLoteSeEnviaCadaLineaConSuReferencia() {
+		libroClient.sinRestaEnLote();
+		List<MovimientoStockDTO> lote = List.of(movimiento(1, 2, "outbox-1"), movimiento(2, 3, "outbox-2"));
+
+		libroService.restarStockLote(lote);
+		// Reenvío tras un fallo ambiguo: las referencias ya aplicadas no descuentan otra vez
+		libroService.restarStockLote(lote);
+
+		assertEquals(8, libroClient.obtenerLibroPorId(1).getStock());
+		assertEquals(7, libroClient.obtenerLibroPorId(2).getStock());
+		assertEquals(1, libroClient.getRestasEnLote(), "El endpoint en lote no soportado no se vuelve a probar");
+	}
+
+	@Test
+	void sinEndpointEnLoteUnLibroInexistenteSePropagaComo404() {
+		libroClient.sinRestaEnLote();
+		List<MovimientoStockDTO> lote = List.of(movimiento(1, 2, "outbox-1"), movimiento(99, 1, "outbox-2"));
+
+		assertThrows(FeignException.NotFound.class, () -> libroService.restarStockLote(lote));
+
+		// Al reenviar solo la línea válida no se descuenta dos veces
+		libroService.restarStockLote(List.of(movimiento(1, 2, "outbox-1")));
+		assertEquals(8, libroClient.obtenerLibroPorId(1).getStock());
+	}
+
+	private static MovimientoStockDTO movimiento(int libroId, int cantidad, String referencia) {
+		return new MovimientoStockDTO(libroId, cantidad, referencia);
+	}
+
+	private static LibroDTO libro(int id) {
+		LibroDTO libro = new LibroDTO();
+		libro.setId(id);
+		libro.setTitulo("Libro " + id);
+		libro.setPrecio(10.0);
+		libro.setStock(10);
+		libro.setEstado(true);
+		return libro;
+	}
+}
@@ -0,0 +1,128 @@
+package com.example.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+
+import jakarta.persistence.CascadeType;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.OneToMany;
+import lombok.Data;
+
+// Con ids de id_generador y hibernate.jdbc.batch_size=50, un pedido de 50 líneas se inserta con
+// unas pocas sentencias preparadas (los detalles en un solo lote) en lugar de una por línea como con IDENTITY
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class PedidoInsercionEnLoteTest {
+
+	private static final int LINEAS = 50;
+
+	// Solo las entidades: la aplicación completa registra clientes Feign y tareas programadas
+	@SpringBootConfiguration
+	@EntityScan(basePackageClasses = Pedido.class)
+	static class Configuracion {
+	}
+
+	@Autowired
+	private TestEntityManager entityManager;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Test
+	void unPedidoDe50LineasUsaPocasSentenciasPreparadas() {
+		Statistics estadisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+		// Línea base: mismo pedido con ids IDENTITY, que Hibernate no puede agrupar en lotes
+		estadisticas.clear();
+		PedidoIdentidad base = new PedidoIdentidad();
+		base.setClienteId(1);
+		List<DetalleIdentidad> detallesBase = new ArrayList<>();
+		for (int i = 1; i <= LINEAS; i++) {
+			DetalleIdentidad detalle = new DetalleIdentidad();
+			detalle.setLibroId(i);
+			detalle.setCantidad(1);
+			detalle.setPedido(base);
+			detallesBase.add(detalle);
+		}
+		base.setDetalles(detallesBase);
+		entityManager.persist(base);
+		entityManager.flush();
+		long sentenciasIdentidad = estadisticas.getPrepareStatementCount();
+
+		estadisticas.clear();
+		Pedido pedido = new Pedido();
+		pedido.setClienteId(1);
+		pedido.setEstado("PENDIENTE");
+		pedido.setFecha(LocalDateTime.now());
+		List<DetallePedido> detalles = new ArrayList<>();
+		for (int i = 1; i <= LINEAS; i++) {
+			DetallePedido detalle = new DetallePedido();
+			detalle.setLibroId(i);
+			detalle.setCantidad(1);
+			detalle.setPrecioUnitario(10.0);
+			detalle.setPedido(pedido);
+			detalles.add(detalle);
+		}
+		pedido.setDetalles(detalles);
+		pedido.setTotal(10.0 * LINEAS);
+
+		entityManager.persist(pedido);
+		entityManager.flush();
+		long sentencias = estadisticas.getPrepareStatementCount();
+
+		assertEquals(LINEAS + 1, estadisticas.getEntityInsertCount());
+		// Con IDENTITY cada fila es su propio insert
+		assertTrue(sentenciasIdentidad >= LINEAS + 1, "Sentencias con IDENTITY: " + sentenciasIdentidad);
+		// 1 insert del pedido + 1 lote de detalles + lectura/avance de id_generador por entidad
+		assertTrue(sentencias <= 8, "Sentencias preparadas: " + sentencias);
+		assertTrue(sentencias * 5 < sentenciasIdentidad,
+				"Con id_generador: " + sentencias + ", con IDENTITY: " + sentenciasIdentidad);
+	}
+
+	// Mismo par pedido/detalle que Pedido y DetallePedido, pero con ids IDENTITY (el esquema anterior)
+	@Entity
+	@Data
+	static class PedidoIdentidad {
+
+		@Id
+		@GeneratedValue(strategy = GenerationType.IDENTITY)
+		private int id;
+		private int clienteId;
+
+		@OneToMany(mappedBy = "pedido", cascade = CascadeType.ALL)
+		private List<DetalleIdentidad> detalles;
+	}
+
+	@Entity
+	@Data
+	static class DetalleIdentidad {
+
+		@Id
+		@GeneratedValue(strategy = GenerationType.IDENTITY)
+		private int id;
+		private int libroId;
+		private int cantidad;
+
+		@ManyToOne
+		@JoinColumn(name = "pedido_id")
+		private PedidoIdentidad pedido;
+	}
+}
@@ -0,0 +1,208 @@
+package com.example.resiliencia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ProteccionRemotaTest {
+
+	private static final Duration TIEMPO_ABIERTO = Duration.ofSeconds(30);
+
+	private final AtomicLong reloj = new AtomicLong();
+	private final AtomicInteger llamadas = new AtomicInteger();
+	private final ExecutorService hilos = Executors.newCachedThreadPool();
+
+	@AfterEach
+	void cerrar() {
+		hilos.shutdownNow();
+	}
+
+	@Test
+	void seAbreTrasElUmbralDeFallosRemotosSeguidos() {
+		ProteccionRemota proteccion = proteccion(3, 4);
+
+		fallar(proteccion);
+		fallar(proteccion);
+		assertEquals("ok", llamar(proteccion));
+		// El éxito reinicia la cuenta
+		fallar(proteccion);
+		fallar(proteccion);
+		fallar(proteccion);
+
+		int antes = llamadas.get();
+		assertThrows(DependenciaNoDisponibleException.class, () -> llamar(proteccion));
+		assertEquals(antes, llamadas.get(), "Con el circuito abierto no debe llamarse al servicio");
+	}
+
+	@Test
+	void losErroresDeNegocioNoAbrenElCircuito() {
+		ProteccionRemota proteccion = proteccion(2, 4);
+
+		for (int i = 0; i < 5; i++) {
+			assertThrows(IllegalArgumentException.class, () -> proteccion.ejecutar(() -> {
+				throw new IllegalArgumentException("404");
+			}));
+		}
+		assertEquals("ok", llamar(proteccion));
+	}
+
+	@Test
+	void semiabiertoDejaPasarUnaSolaPruebaYSuExitoCierra() throws Exception {
+		ProteccionRemota proteccion = abierto();
+		avanzar(TIEMPO_ABIERTO);
+
+		CountDownLatch entro = new CountDownLatch(1);
+		CountDownLatch soltar = new CountDownLatch(1);
+		CompletableFuture<String> prueba = CompletableFuture.supplyAsync(() -> proteccion.ejecutar(() -> {
+			entro.countDown();
+			esperar(soltar);
+			return "prueba";
+		}), hilos);
+		assertTrue(entro.await(5, TimeUnit.SECONDS));
+
+		// Mientras la prueba está en curso el resto se rechaza
+		assertThrows(DependenciaNoDisponibleException.class, () -> llamar(proteccion));
+
+		soltar.countDown();
+		assertEquals("prueba", prueba.get(5, TimeUnit.SECONDS));
+		assertEquals("ok", llamar(proteccion));
+	}
+
+	@Test
+	void siLaPruebaFallaVuelveAAbrirse() {
+		ProteccionRemota proteccion = abierto();
+		avanzar(TIEMPO_ABIERTO);
+
+		fallar(proteccion);
+		assertThrows(DependenciaNoDisponibleException.class, () -> llamar(proteccion));
+
+		avanzar(TIEMPO_ABIERTO.minusSeconds(1));
+		assertThrows(DependenciaNoDisponibleException.class, () -> llamar(proteccion));
+
+		avanzar(Duration.ofSeconds(1));
+		assertEquals("ok", llamar(proteccion));
+	}
+
+	@Test
+	void unErrorEnLaPruebaNoDejaElCircuitoSemiabiertoParaSiempre() {
+		ProteccionRemota proteccion = abierto();
+		avanzar(TIEMPO_ABIERTO);
+
+		assertThrows(StackOverflowError.class, () -> proteccion.ejecutar(() -> {
+			throw new StackOverflowError();
+		}));
+		// La prueba fallida reabre el circuito en lugar de bloquear las pruebas siguientes
+		assertThrows(DependenciaNoDisponibleException.class, () -> llamar(proteccion));
+
+		avanzar(TIEMPO_ABIERTO);
+		assertEquals("ok", llamar(proteccion));
+	}
+
+	@Test
+	void unaLlamadaLentaDeAntesDeAbrirseNoCierraElCircuito() throws Exception {
+		ProteccionRemota proteccion = proteccion(1, 4);
+
+		// Llamada lenta que empieza con el circuito cerrado
+		CountDownLatch lentaEntro = new CountDownLatch(1);
+		CountDownLatch soltarLenta = new CountDownLatch(1);
+		CompletableFuture<String> lenta = CompletableFuture.supplyAsync(() -> proteccion.ejecutar(() -> {
+			lentaEntro.countDown();
+			esperar(soltarLenta);
+			return "lenta";
+		}), hilos);
+		assertTrue(lentaEntro.await(5, TimeUnit.SECONDS));
+
+		// Mientras tanto el circuito se abre y pasa a semiabierto con una prueba en curso
+		fallar(proteccion);
+		avanzar(TIEMPO_ABIERTO);
+		CountDownLatch pruebaEntro = new CountDownLatch(1);
+		CountDownLatch soltarPrueba = new CountDownLatch(1);
+		CompletableFuture<String> prueba = CompletableFuture.supplyAsync(() -> proteccion.ejecutar(() -> {
+			pruebaEntro.countDown();
+			esperar(soltarPrueba);
+			return "prueba";
+		}), hilos);
+		assertTrue(pruebaEntro.await(5, TimeUnit.SECONDS));
+
+		// El éxito de la llamada lenta no cierra el circuito ni libera la prueba
+		soltarLenta.countDown();
+		assertEquals("lenta", lenta.get(5, TimeUnit.SECONDS));
+		assertThrows(DependenciaNoDisponibleException.class, () -> llamar(proteccion));
+
+		soltarPrueba.countDown();
+		assertEquals("prueba", prueba.get(5, TimeUnit.SECONDS));
+		assertEquals("ok", llamar(proteccion));
+	}
+
+	@Test
+	void rechazaSiNoHayCupoDeConcurrencia() throws Exception {
+		ProteccionRemota proteccion = proteccion(5, 1);
+
+		CountDownLatch entro = new CountDownLatch(1);
+		CountDownLatch soltar = new CountDownLatch(1);
+		CompletableFuture<String> ocupada = CompletableFuture.supplyAsync(() -> proteccion.ejecutar(() -> {
+			entro.countDown();
+			esperar(soltar);
+			return "ocupada";
+		}), hilos);
+		assertTrue(entro.await(5, TimeUnit.SECONDS));
+
+		DependenciaNoDisponibleException e = assertThrows(DependenciaNoDisponibleException.class,
+				() -> llamar(proteccion));
+		assertTrue(e.getMessage().contains("saturado"));
+
+		soltar.countDown();
+		assertEquals("ocupada", ocupada.get(5, TimeUnit.SECONDS));
+		assertEquals("ok", llamar(proteccion));
+	}
+
+	private ProteccionRemota proteccion(int umbralFallos, int maxConcurrentes) {
+		return new ProteccionRemota("prueba", maxConcurrentes, Duration.ofMillis(10), umbralFallos, TIEMPO_ABIERTO,
+				e -> e instanceof IllegalStateException, reloj::get);
+	}
+
+	private ProteccionRemota abierto() {
+		ProteccionRemota proteccion = proteccion(1, 4);
+		fallar(proteccion);
+		assertThrows(DependenciaNoDisponibleException.class, () -> llamar(proteccion));
+		return proteccion;
+	}
+
+	private String llamar(ProteccionRemota proteccion) {
+		return proteccion.ejecutar(() -> {
+			llamadas.incrementAndGet();
+			return "ok";
+		});
+	}
+
+	private void fallar(ProteccionRemota proteccion) {
+		assertThrows(IllegalStateException.class, () -> proteccion.ejecutar(() -> {
+			llamadas.incrementAndGet();
+			throw new IllegalStateException("timeout");
+		}));
+	}
+
+	private void avanzar(Duration tiempo) {
+		reloj.addAndGet(tiempo.toNanos());
+	}
+
+	private static void esperar(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package com.example.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.example.controller.PedidoController;
+import com.example.model.Pedido;
+import com.example.service.PedidoService;
+import com.example.soap.AuthService;
+import com.kirbook.auth.ValidateTokenResponse;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Endpoints con @RequiereRol a través de AutenticacionInterceptor: 401 sin token o con uno inválido,
+// 403 con otro rol y una sola validación del token por petición
+class AutenticacionInterceptorTest {
+
+	private static final String CUERPO_PEDIDO = "{\"detalles\":[{\"libroId\":1,\"cantidad\":1}]}";
+
+	private AuthService authService;
+	private PedidoService pedidoService;
+	private SimpleMeterRegistry meterRegistry;
+	private MockMvc mockMvc;
+
+	@BeforeEach
+	void preparar() {
+		authService = mock(AuthService.class);
+		pedidoService = mock(PedidoService.class);
+		meterRegistry = new SimpleMeterRegistry();
+		// Fuera del contenedor no hay ámbito de petición: una instancia por prueba
+		UsuarioActual usuarioActual = new UsuarioActual();
+
+		AutenticacionInterceptor interceptor = new AutenticacionInterceptor();
+		ReflectionTestUtils.setField(interceptor, "authService", authService);
+		ReflectionTestUtils.setField(interceptor, "usuarioActual", usuarioActual);
+		ReflectionTestUtils.setField(interceptor, "meterRegistry", meterRegistry);
+
+		PedidoController controller = new PedidoController();
+		ReflectionTestUtils.setField(controller, "pedidoService", pedidoService);
+		ReflectionTestUtils.setField(controller, "usuarioActual", usuarioActual);
+
+		mockMvc = MockMvcBuilders.standaloneSetup(controller)
+				.addMappedInterceptors(new String[] { "/pedidos/**" }, interceptor)
+				.build();
+	}
+
+	@Test
+	void sinCabeceraAuthorizationResponde401SinValidar() throws Exception {
+		mockMvc.perform(generarPedido())
+				.andExpect(status().isUnauthorized())
+				.andExpect(content().string("Token no proporcionado o formato inválido"));
+
+		verifyNoInteractions(authService, pedidoService);
+	}
+
+	@Test
+	void unaCabeceraSinBearerResponde401() throws Exception {
+		mockMvc.perform(generarPedido().header(HttpHeaders.AUTHORIZATION, "Basic abc"))
+				.andExpect(status().isUnauthorized());
+
+		verifyNoInteractions(authService, pedidoService);
+	}
+
+	@Test
+	void unTokenInvalidoResponde401() throws Exception {
+		ValidateTokenResponse invalido = new ValidateTokenResponse();
+		invalido.setValid(false);
+		when(authService.validar("caducado")).thenReturn(invalido);
+
+		mockMvc.perform(generarPedido().header(HttpHeaders.AUTHORIZATION, "Bearer caducado"))
+				.andExpect(status().isUnauthorized())
+				.andExpect(content().string("Token inválido o expirado"));
+
+		verifyNoInteractions(pedidoService);
+		assertEquals(1, meterRegistry.timer("pedidos.autenticacion", "resultado", "invalido").count());
+	}
+
+	@Test
+	void unTokenValidoSinIdResponde401() throws Exception {
+		ValidateTokenResponse sinId = usuario("ROLE_USER");
+		sinId.setId(null);
+		when(authService.validar("sin-id")).thenReturn(sinId);
+
+		mockMvc.perform(generarPedido().header(HttpHeaders.AUTHORIZATION, "Bearer sin-id"))
+				.andExpect(status().isUnauthorized());
+
+		verifyNoInteractions(pedidoService);
+	}
+
+	@Test
+	void otroRolResponde403ConElMensajeDelEndpoint() throws Exception {
+		when(authService.validar("admin")).thenReturn(usuario("ROLE_ADMIN"));
+
+		mockMvc.perform(generarPedido().header(HttpHeaders.AUTHORIZATION, "Bearer admin"))
+				.andExpect(status().isForbidden())
+				.andExpect(content().string(
+						"Acceso denegado. Solo los usuarios con rol CLIENTE pueden generar pedidos."));
+
+		verifyNoInteractions(pedidoService);
+	}
+
+	@Test
+	void elTokenSeValidaUnaVezPorPeticionYElUsuarioLlegaAlServicio() throws Exception {
+		ValidateTokenResponse cliente = usuario("ROLE_USER");
+		when(authService.validar("cliente")).thenReturn(cliente);
+		doReturn(ResponseEntity.status(HttpStatus.CREATED).build())
+				.when(pedidoService).generarPedido(any(), any(), any());
+
+		mockMvc.perform(generarPedido().header(HttpHeaders.AUTHORIZATION, "Bearer cliente"))
+				.andExpect(status().isCreated());
+		verify(authService, times(1)).validar("cliente");
+		verify(pedidoService).generarPedido(eq(cliente), isNull(), any());
+
+		// Cada petición valida su propio token: nada se arrastra de la anterior
+		mockMvc.perform(generarPedido().header(HttpHeaders.AUTHORIZATION, "Bearer cliente"))
+				.andExpect(status().isCreated());
+		verify(authService, times(2)).validar("cliente");
+		assertEquals(2, meterRegistry.timer("pedidos.autenticacion", "resultado", "valido").count());
+	}
+
+	@Test
+	void losEndpointsSinRequiereRolNoValidanElToken() throws Exception {
+		when(pedidoService.obtenerPorId(3)).thenReturn(new Pedido());
+
+		mockMvc.perform(get("/pedidos/3"))
+				.andExpect(status().isOk());
+
+		verify(authService, never()).validar(anyString());
+	}
+
+	private static MockHttpServletRequestBuilder generarPedido() {
+		return post("/pedidos/generar-pedido")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(CUERPO_PEDIDO);
+	}
+
+	private static ValidateTokenResponse usuario(String rol) {
+		ValidateTokenResponse usuario = new ValidateTokenResponse();
+		usuario.setValid(true);
+		usuario.setId(5L);
+		usuario.setUsername("ana");
+		usuario.setRol(rol);
+		return usuario;
+	}
+}
@@ -0,0 +1,202 @@
+package com.example.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kirbook.auth.ValidateTokenResponse;
+
+class JwtVerificadorTest {
+
+	private static final String SECRETO = "secreto-de-pruebas-con-longitud-suficiente";
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static KeyPair claveRsa;
+	private static KeyPair otraClaveRsa;
+
+	@BeforeAll
+	static void generarClaves() throws Exception {
+		KeyPairGenerator generador = KeyPairGenerator.getInstance("RSA");
+		generador.initialize(2048);
+		claveRsa = generador.generateKeyPair();
+		otraClaveRsa = generador.generateKeyPair();
+	}
+
+	@Test
+	void aceptaHs256ConFirmaCorrecta() throws Exception {
+		ValidateTokenResponse resp = soloHmac().verificar(hs256(claims(), SECRETO));
+
+		assertNotNull(resp);
+		assertTrue(resp.isValid());
+		assertEquals(7L, resp.getId());
+		assertEquals("ROLE_USER", resp.getRol());
+		assertEquals("ana", resp.getUsername());
+	}
+
+	@Test
+	void rechazaFirmaIncorrecta() throws Exception {
+		ValidateTokenResponse resp = soloHmac().verificar(hs256(claims(), "otro-secreto"));
+
+		assertNotNull(resp);
+		assertFalse(resp.isValid());
+		assertEquals("Firma del token inválida", resp.getMessage());
+	}
+
+	@Test
+	void expiracionConMargenDeReloj() throws Exception {
+		JwtVerificador verificador = soloHmac();
+		long ahora = Instant.now().getEpochSecond();
+
+		Map<String, Object> dentroDelMargen = claims();
+		dentroDelMargen.put("exp", ahora - 10);
+		assertTrue(verificador.verificar(hs256(dentroDelMargen, SECRETO)).isValid());
+
+		Map<String, Object> vencido = claims();
+		vencido.put("exp", ahora - 60);
+		ValidateTokenResponse resp = verificador.verificar(hs256(vencido, SECRETO));
+		assertFalse(resp.isValid());
+		assertEquals("Token expirado", resp.getMessage());
+
+		Map<String, Object> sinExp = claims();
+		sinExp.remove("exp");
+		assertFalse(verificador.verificar(hs256(sinExp, SECRETO)).isValid());
+	}
+
+	@Test
+	void nbfConMargenDeReloj() throws Exception {
+		JwtVerificador verificador = soloHmac();
+		long ahora = Instant.now().getEpochSecond();
+
+		Map<String, Object> dentroDelMargen = claims();
+		dentroDelMargen.put("nbf", ahora + 10);
+		assertTrue(verificador.verificar(hs256(dentroDelMargen, SECRETO)).isValid());
+
+		Map<String, Object> futuro = claims();
+		futuro.put("nbf", ahora + 60);
+		ValidateTokenResponse resp = verificador.verificar(hs256(futuro, SECRETO));
+		assertFalse(resp.isValid());
+		assertEquals("Token aún no válido", resp.getMessage());
+	}
+
+	@Test
+	void algoritmoDesconocidoSeDelegaEnAuthService() throws Exception {
+		JwtVerificador verificador = soloHmac();
+		String[] partes = hs256(claims(), SECRETO).split("\\.");
+
+		assertNull(verificador.verificar(base64(Map.of("alg", "none")) + "." + partes[1] + "."));
+		assertNull(verificador.verificar(base64(Map.of("alg", "HS512")) + "." + partes[1] + "." + partes[2]));
+		assertNull(verificador.verificar("no-es-un-jwt"));
+	}
+
+	@Test
+	void sinClaimsDeIdORolSeDelegaEnAuthService() throws Exception {
+		JwtVerificador verificador = soloHmac();
+
+		Map<String, Object> sinId = claims();
+		sinId.remove("id");
+		assertNull(verificador.verificar(hs256(sinId, SECRETO)));
+
+		Map<String, Object> sinRol = claims();
+		sinRol.remove("rol");
+		assertNull(verificador.verificar(hs256(sinRol, SECRETO)));
+
+		Map<String, Object> idNoNumerico = claims();
+		idNoNumerico.put("id", "ana");
+		assertNull(verificador.verificar(hs256(idNoNumerico, SECRETO)));
+	}
+
+	@Test
+	void seleccionaLaClaveSegunElAlgoritmo() throws Exception {
+		JwtVerificador verificador = soloRsa();
+
+		ValidateTokenResponse firmado = verificador.verificar(rs256(claims(), claveRsa.getPrivate()));
+		assertTrue(firmado.isValid());
+		assertEquals(7L, firmado.getId());
+
+		ValidateTokenResponse otraClave = verificador.verificar(rs256(claims(), otraClaveRsa.getPrivate()));
+		assertFalse(otraClave.isValid());
+
+		// Sin secretos HMAC un HS256 no se verifica aquí, aunque se firme con los bytes de la clave pública
+		assertNull(verificador.verificar(hs256(claims(), SECRETO)));
+		String clavePublica = Base64.getEncoder().encodeToString(claveRsa.getPublic().getEncoded());
+		assertNull(verificador.verificar(hs256(claims(), clavePublica)));
+
+		// Y con solo secretos HMAC un RS256 tampoco
+		assertNull(soloHmac().verificar(rs256(claims(), claveRsa.getPrivate())));
+	}
+
+	private static JwtVerificador soloHmac() throws Exception {
+		return verificador(List.of(SECRETO), List.of());
+	}
+
+	private static JwtVerificador soloRsa() throws Exception {
+		return verificador(List.of(), List.of(Base64.getEncoder().encodeToString(claveRsa.getPublic().getEncoded())));
+	}
+
+	private static JwtVerificador verificador(List<String> secretos, List<String> clavesRsa) throws Exception {
+		JwtVerificador verificador = new JwtVerificador();
+		ReflectionTestUtils.setField(verificador, "objectMapper", MAPPER);
+		ReflectionTestUtils.setField(verificador, "habilitado", true);
+		ReflectionTestUtils.setField(verificador, "secretosHmac", secretos);
+		ReflectionTestUtils.setField(verificador, "clavesRsaBase64", clavesRsa);
+		ReflectionTestUtils.setField(verificador, "claimId", "id");
+		ReflectionTestUtils.setField(verificador, "claimRol", "rol");
+		ReflectionTestUtils.setField(verificador, "claimUsername", "sub");
+		ReflectionTestUtils.setField(verificador, "margenRelojSegundos", 30L);
+		verificador.cargarClaves();
+		return verificador;
+	}
+
+	private static Map<String, Object> claims() {
+		Map<String, Object> claims = new LinkedHashMap<>();
+		claims.put("sub", "ana");
+		claims.put("id", 7);
+		claims.put("rol", "ROLE_USER");
+		claims.put("exp", Instant.now().getEpochSecond() + 300);
+		return claims;
+	}
+
+	private static String hs256(Map<String, Object> claims, String secreto) throws Exception {
+		String contenido = base64(Map.of("alg", "HS256", "typ", "JWT")) + "." + base64(claims);
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(secreto.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+		return contenido + "." + base64(mac.doFinal(contenido.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	private static String rs256(Map<String, Object> claims, PrivateKey clave) throws Exception {
+		String contenido = base64(Map.of("alg", "RS256", "typ", "JWT")) + "." + base64(claims);
+		Signature firma = Signature.getInstance("SHA256withRSA");
+		firma.initSign(clave);
+		firma.update(contenido.getBytes(StandardCharsets.US_ASCII));
+		return contenido + "." + base64(firma.sign());
+	}
+
+	private static String base64(Map<String, Object> json) throws Exception {
+		return base64(MAPPER.writeValueAsBytes(json));
+	}
+
+	private static String base64(byte[] bytes) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+	}
+}
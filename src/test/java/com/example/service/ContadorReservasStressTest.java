@@ -0,0 +1,82 @@
+package com.example.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.DTO.LibroDTO;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Muchos pedidos concurrentes sobre pocos libros "calientes": nunca se retiene más que el stock
+class ContadorReservasStressTest {
+
+	private static final int LIBROS = 5;
+	private static final int STOCK = 200;
+	private static final int HILOS = 32;
+	private static final int PEDIDOS_POR_HILO = 5_000;
+
+	@Test
+	void noSeVendeMasQueElStock() throws Exception {
+		ContadorReservas contador = new ContadorReservas(64, new SimpleMeterRegistry());
+
+		Map<Integer, LibroDTO> libros = new HashMap<>();
+		for (int id = 1; id <= LIBROS; id++) {
+			LibroDTO libro = new LibroDTO();
+			libro.setId(id);
+			libro.setTitulo("Libro " + id);
+			libro.setStock(STOCK);
+			libros.put(id, libro);
+		}
+
+		AtomicIntegerArray aceptadoPorLibro = new AtomicIntegerArray(LIBROS + 1);
+		CountDownLatch salida = new CountDownLatch(1);
+		ExecutorService hilos = Executors.newFixedThreadPool(HILOS);
+
+		for (int h = 0; h < HILOS; h++) {
+			hilos.execute(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				try {
+					salida.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				for (int i = 0; i < PEDIDOS_POR_HILO; i++) {
+					// 1 a 3 libros distintos por pedido, en cualquier orden, 1 o 2 unidades cada uno
+					Map<Integer, Integer> cantidades = new HashMap<>();
+					int lineas = random.nextInt(1, 4);
+					while (cantidades.size() < lineas) {
+						cantidades.put(random.nextInt(1, LIBROS + 1), random.nextInt(1, 3));
+					}
+
+					List<String> errores = contador.retener(cantidades, libros);
+					if (errores.isEmpty()) {
+						cantidades.forEach(aceptadoPorLibro::addAndGet);
+					}
+				}
+			});
+		}
+
+		salida.countDown();
+		hilos.shutdown();
+		assertTrue(hilos.awaitTermination(60, TimeUnit.SECONDS), "Posible interbloqueo: los hilos no terminaron");
+
+		// Con tantos intentos de una unidad cada libro acaba exactamente agotado, sin sobreventa
+		for (int id = 1; id <= LIBROS; id++) {
+			assertEquals(STOCK, aceptadoPorLibro.get(id), "Stock vendido del libro " + id);
+			assertEquals(aceptadoPorLibro.get(id), contador.retenido(id));
+		}
+	}
+}
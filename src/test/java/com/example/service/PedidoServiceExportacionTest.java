@@ -0,0 +1,124 @@
+package com.example.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.example.feign.LibroClientLocal;
+import com.example.feign.LibroServicePruebas;
+import com.example.model.DetallePedido;
+import com.example.model.Pedido;
+import com.example.repository.IPedidoRepository;
+import com.example.soap.AuthService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.kirbook.auth.GetUserByIdResponse;
+
+import jakarta.persistence.EntityManager;
+
+// Exportación NDJSON: los clientes se resuelven una vez por bloque de 100 filas y un perfil que auth-service
+// no devuelve sale solo con su id, sin cortar la exportación
+class PedidoServiceExportacionTest {
+
+	private static final int PEDIDOS = 250;
+
+	private final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+
+	@Test
+	void resuelveLosClientesPorBloqueYToleraPerfilesFaltantes() throws Exception {
+		IPedidoRepository pedidoRepository = mock(IPedidoRepository.class);
+		when(pedidoRepository.streamAllOrderById()).thenAnswer(inv -> IntStream.rangeClosed(1, PEDIDOS)
+				.mapToObj(PedidoServiceExportacionTest::pedido));
+
+		// auth-service solo devuelve los clientes pares (el resto, p. ej. por un fallo, no aparece)
+		AuthService authService = mock(AuthService.class);
+		when(authService.obtenerUsuariosPorIds(anyCollection())).thenAnswer(inv -> {
+			Map<Integer, GetUserByIdResponse> usuarios = new HashMap<>();
+			for (Integer id : inv.<Collection<Integer>>getArgument(0)) {
+				if (id % 2 == 0) {
+					usuarios.put(id, usuario(id));
+				}
+			}
+			return usuarios;
+		});
+
+		PedidoService pedidoService = new PedidoService();
+		ReflectionTestUtils.setField(pedidoService, "pedidoRepository", pedidoRepository);
+		ReflectionTestUtils.setField(pedidoService, "authService", authService);
+		ReflectionTestUtils.setField(pedidoService, "libroService", LibroServicePruebas.crear(new LibroClientLocal()));
+		ReflectionTestUtils.setField(pedidoService, "transactionManager", mock(PlatformTransactionManager.class));
+		ReflectionTestUtils.setField(pedidoService, "entityManager", mock(EntityManager.class));
+		ReflectionTestUtils.setField(pedidoService, "objectMapper", objectMapper);
+
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		pedidoService.exportarPedidos().getBody().writeTo(salida);
+
+		verify(authService, times(3)).obtenerUsuariosPorIds(anyCollection());
+		verify(authService, never()).obtenerUsuarioPorId(anyInt());
+
+		String[] lineas = salida.toString(StandardCharsets.UTF_8).split("\n");
+		assertEquals(PEDIDOS, lineas.length);
+		for (int i = 0; i < PEDIDOS; i++) {
+			JsonNode fila = objectMapper.readTree(lineas[i]);
+			int clienteId = 1000 + i + 1;
+			assertEquals(i + 1, fila.get("id").asInt());
+			assertEquals(clienteId, fila.get("cliente").get("id").asInt());
+			if (clienteId % 2 == 0) {
+				assertEquals("usuario" + clienteId, fila.get("cliente").get("username").asText());
+			} else {
+				assertTrue(fila.get("cliente").get("username").isNull());
+			}
+			assertFalse(fila.get("items").isEmpty());
+		}
+	}
+
+	private static Pedido pedido(int id) {
+		Pedido pedido = new Pedido();
+		pedido.setId(id);
+		pedido.setClienteId(1000 + id);
+		pedido.setEstado("PENDIENTE");
+		pedido.setFecha(LocalDateTime.now());
+		pedido.setTotal(10.0);
+
+		// Línea con foto del libro: no hace falta consultar libro-service
+		DetallePedido detalle = new DetallePedido();
+		detalle.setLibroId(1);
+		detalle.setCantidad(1);
+		detalle.setPrecioUnitario(10.0);
+		detalle.setTituloLibro("Libro 1");
+		detalle.setPedido(pedido);
+		pedido.setDetalles(new ArrayList<>(List.of(detalle)));
+		return pedido;
+	}
+
+	private static GetUserByIdResponse usuario(int id) {
+		GetUserByIdResponse usuario = new GetUserByIdResponse();
+		usuario.setExists(true);
+		usuario.setId((long) id);
+		usuario.setUsername("usuario" + id);
+		usuario.setRol("ROLE_USER");
+		return usuario;
+	}
+}
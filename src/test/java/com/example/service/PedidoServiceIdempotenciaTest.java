@@ -0,0 +1,258 @@
+package com.example.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.example.DTO.DetallePedidoRequestDTO;
+import com.example.DTO.EstadoPedidoDTO;
+import com.example.DTO.LibroDTO;
+import com.example.DTO.PedidoRequestDTO;
+import com.example.DTO.PedidoResponseDTO;
+import com.example.feign.LibroClientLocal;
+import com.example.feign.LibroServicePruebas;
+import com.example.model.DetallePedido;
+import com.example.model.Pedido;
+import com.example.repository.IPedidoRepository;
+import com.kirbook.auth.ValidateTokenResponse;
+
+// Idempotency-Key en generar-pedido: repetición desde memoria y desde la BD, intentos simultáneos con la
+// misma clave, la carrera contra el índice único y el uso de la misma clave en generar-pedido-async
+class PedidoServiceIdempotenciaTest {
+
+	private static final String CLAVE = "clave-1";
+
+	private IPedidoRepository pedidoRepository;
+	private ReservaStockService reservaStockService;
+	private PedidoService pedidoService;
+	private final AtomicInteger siguienteId = new AtomicInteger(100);
+
+	@BeforeEach
+	void preparar() {
+		pedidoRepository = mock(IPedidoRepository.class);
+		when(pedidoRepository.save(any(Pedido.class))).thenAnswer(inv -> {
+			Pedido pedido = inv.getArgument(0);
+			if (pedido.getId() == 0) {
+				pedido.setId(siguienteId.incrementAndGet());
+			}
+			return pedido;
+		});
+		reservaStockService = mock(ReservaStockService.class);
+
+		LibroDTO libro = new LibroDTO();
+		libro.setId(1);
+		libro.setTitulo("Libro 1");
+		libro.setPrecio(10.0);
+		libro.setStock(100);
+		libro.setEstado(true);
+
+		pedidoService = nuevoPedidoService(LibroServicePruebas.crear(new LibroClientLocal().agregar(libro)));
+	}
+
+	private PedidoService nuevoPedidoService(Object libroService) {
+		PedidoService servicio = new PedidoService();
+		ReflectionTestUtils.setField(servicio, "pedidoRepository", pedidoRepository);
+		ReflectionTestUtils.setField(servicio, "reservaStockService", reservaStockService);
+		ReflectionTestUtils.setField(servicio, "libroService", libroService);
+		ReflectionTestUtils.setField(servicio, "transactionManager", mock(PlatformTransactionManager.class));
+		ReflectionTestUtils.setField(servicio, "pedidosExecutor", new SyncTaskExecutor() {
+			@Override
+			public void execute(Runnable tarea) {
+				// Los pedidos asíncronos quedan RECIBIDO
+			}
+		});
+		ReflectionTestUtils.setField(servicio, "idempotenciaMaxEntradas", 100);
+		ReflectionTestUtils.setField(servicio, "idempotenciaTtl", Duration.ofHours(24));
+		servicio.iniciarCache();
+		return servicio;
+	}
+
+	@Test
+	void unaClaveRepetidaDevuelveElMismoPedidoSinCrearOtro() {
+		ResponseEntity<?> primera = pedidoService.generarPedido(usuario(), CLAVE, solicitud());
+		ResponseEntity<?> segunda = pedidoService.generarPedido(usuario(), CLAVE, solicitud());
+
+		assertEquals(HttpStatus.CREATED, primera.getStatusCode());
+		assertNull(primera.getHeaders().getFirst("Idempotent-Replayed"));
+		assertEquals(HttpStatus.CREATED, segunda.getStatusCode());
+		assertEquals("true", segunda.getHeaders().getFirst("Idempotent-Replayed"));
+		assertEquals(id(primera), id(segunda));
+		verify(pedidoRepository, times(1)).save(any(Pedido.class));
+	}
+
+	@Test
+	void sinLaRespuestaEnMemoriaSeRepiteDesdeLaBD() {
+		Pedido guardado = pedidoGuardado(55, "PENDIENTE");
+		when(pedidoRepository.findWithDetallesByClienteIdAndClaveIdempotencia(5, CLAVE))
+				.thenReturn(Optional.of(guardado));
+
+		ResponseEntity<?> respuesta = pedidoService.generarPedido(usuario(), CLAVE, solicitud());
+
+		assertEquals(HttpStatus.CREATED, respuesta.getStatusCode());
+		assertEquals("true", respuesta.getHeaders().getFirst("Idempotent-Replayed"));
+		assertEquals(55, id(respuesta));
+		verify(pedidoRepository, never()).save(any(Pedido.class));
+		verify(reservaStockService, never()).retener(anyMap(), anyMap());
+	}
+
+	@Test
+	void unIntentoSimultaneoConLaMismaClaveEsperaAlPrimero() throws Exception {
+		CountDownLatch dentro = new CountDownLatch(1);
+		CountDownLatch soltar = new CountDownLatch(1);
+		when(reservaStockService.retener(anyMap(), anyMap())).thenAnswer(inv -> {
+			dentro.countDown();
+			soltar.await(10, TimeUnit.SECONDS);
+			return List.of();
+		});
+
+		CompletableFuture<ResponseEntity<?>> primero = CompletableFuture.supplyAsync(
+				() -> pedidoService.generarPedido(usuario(), CLAVE, solicitud()));
+		assertTrue(dentro.await(10, TimeUnit.SECONDS));
+
+		AtomicReference<ResponseEntity<?>> segundo = new AtomicReference<>();
+		Thread hilo = new Thread(() -> segundo.set(pedidoService.generarPedido(usuario(), CLAVE, solicitud())));
+		hilo.start();
+		// El segundo intento queda esperando el resultado del primero
+		long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (hilo.getState() != Thread.State.WAITING && System.nanoTime() < limite) {
+			Thread.sleep(5);
+		}
+		assertEquals(Thread.State.WAITING, hilo.getState());
+
+		soltar.countDown();
+		ResponseEntity<?> respuesta = primero.get(10, TimeUnit.SECONDS);
+		hilo.join(10_000);
+
+		assertSame(respuesta, segundo.get());
+		verify(pedidoRepository, times(1)).save(any(Pedido.class));
+		verify(reservaStockService, times(1)).retener(anyMap(), anyMap());
+	}
+
+	@Test
+	void siOtraInstanciaGuardaLaMismaClaveSeDevuelveSuPedido() {
+		Pedido guardado = pedidoGuardado(77, "PENDIENTE");
+		when(pedidoRepository.findWithDetallesByClienteIdAndClaveIdempotencia(5, CLAVE))
+				.thenReturn(Optional.empty(), Optional.of(guardado));
+		doThrow(new DataIntegrityViolationException("uk_pedido_cliente_idempotencia"))
+				.when(pedidoRepository).save(any(Pedido.class));
+
+		ResponseEntity<?> respuesta = pedidoService.generarPedido(usuario(), CLAVE, solicitud());
+
+		assertEquals(HttpStatus.CREATED, respuesta.getStatusCode());
+		assertEquals("true", respuesta.getHeaders().getFirst("Idempotent-Replayed"));
+		assertEquals(77, id(respuesta));
+		// La retención en memoria del intento perdido se deshace
+		verify(reservaStockService).soltar(Map.of(1, 2));
+	}
+
+	@Test
+	void unaClaveDeGenerarPedidoRepetidaEnAsyncRespondeConSuEstado() {
+		Pedido guardado = pedidoGuardado(88, "PENDIENTE");
+		when(pedidoRepository.findWithDetallesByClienteIdAndClaveIdempotencia(5, CLAVE))
+				.thenReturn(Optional.of(guardado));
+
+		ResponseEntity<?> respuesta = pedidoService.recibirPedido(usuario(), CLAVE, solicitud());
+
+		assertEquals(HttpStatus.ACCEPTED, respuesta.getStatusCode());
+		assertEquals("/pedidos/estado/88", respuesta.getHeaders().getLocation().toString());
+		assertEquals("true", respuesta.getHeaders().getFirst("Idempotent-Replayed"));
+		assertEquals("PENDIENTE", assertInstanceOf(EstadoPedidoDTO.class, respuesta.getBody()).getEstado());
+		verify(pedidoRepository, never()).save(any(Pedido.class));
+	}
+
+	@Test
+	void unaClaveDeAsyncRepetidaEnGenerarPedidoNoDevuelveUnPedidoSinPrecios() {
+		Pedido recibido = pedidoGuardado(99, "RECIBIDO");
+		when(pedidoRepository.findWithDetallesByClienteIdAndClaveIdempotencia(5, CLAVE))
+				.thenReturn(Optional.of(recibido));
+
+		ResponseEntity<?> respuesta = pedidoService.generarPedido(usuario(), CLAVE, solicitud());
+
+		assertEquals(HttpStatus.ACCEPTED, respuesta.getStatusCode());
+		assertEquals("/pedidos/estado/99", respuesta.getHeaders().getLocation().toString());
+		assertEquals("RECIBIDO", assertInstanceOf(EstadoPedidoDTO.class, respuesta.getBody()).getEstado());
+		verify(pedidoRepository, never()).save(any(Pedido.class));
+		verify(reservaStockService, never()).retener(anyMap(), anyMap());
+	}
+
+	@Test
+	void claveDemasiadoLargaSeRechaza() {
+		ResponseEntity<?> respuesta = pedidoService.generarPedido(usuario(), "x".repeat(101), solicitud());
+
+		assertEquals(HttpStatus.BAD_REQUEST, respuesta.getStatusCode());
+		verify(pedidoRepository, never()).findWithDetallesByClienteIdAndClaveIdempotencia(eq(5), any());
+	}
+
+	private static int id(ResponseEntity<?> respuesta) {
+		return assertInstanceOf(PedidoResponseDTO.class, respuesta.getBody()).getId();
+	}
+
+	private static ValidateTokenResponse usuario() {
+		ValidateTokenResponse usuario = new ValidateTokenResponse();
+		usuario.setValid(true);
+		usuario.setId(5L);
+		usuario.setUsername("ana");
+		usuario.setRol("ROLE_USER");
+		return usuario;
+	}
+
+	private static PedidoRequestDTO solicitud() {
+		DetallePedidoRequestDTO linea = new DetallePedidoRequestDTO();
+		linea.setLibroId(1);
+		linea.setCantidad(2);
+		PedidoRequestDTO solicitud = new PedidoRequestDTO();
+		solicitud.setDetalles(List.of(linea));
+		return solicitud;
+	}
+
+	private static Pedido pedidoGuardado(int id, String estado) {
+		Pedido pedido = new Pedido();
+		pedido.setId(id);
+		pedido.setClienteId(5);
+		pedido.setEstado(estado);
+		pedido.setFecha(LocalDateTime.now());
+		pedido.setTotal(20.0);
+		pedido.setClaveIdempotencia(CLAVE);
+
+		DetallePedido detalle = new DetallePedido();
+		detalle.setLibroId(1);
+		detalle.setCantidad(2);
+		detalle.setPrecioUnitario(10.0);
+		detalle.setTituloLibro("Libro 1");
+		detalle.setPedido(pedido);
+		pedido.setDetalles(new ArrayList<>(List.of(detalle)));
+		return pedido;
+	}
+}
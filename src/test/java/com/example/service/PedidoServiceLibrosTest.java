@@ -0,0 +1,200 @@
+package com.example.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.example.DTO.DetallePedidoDTO;
+import com.example.DTO.LibroDTO;
+import com.example.DTO.PedidoDTO;
+import com.example.feign.LibroClientLocal;
+import com.example.feign.LibroServicePruebas;
+import com.example.model.DetallePedido;
+import com.example.model.Pedido;
+import com.example.repository.IDetallePedidoRepository;
+import com.example.repository.IPedidoRepository;
+import com.example.soap.AuthService;
+import com.kirbook.auth.GetUserByIdResponse;
+
+// crearPedido/actualizarPedido contra libro-service en memoria: cada libro distinto se consulta una sola vez
+class PedidoServiceLibrosTest {
+
+	private LibroClientLocal libroClient;
+	private IPedidoRepository pedidoRepository;
+	private IDetallePedidoRepository detalleRepo;
+	private ReservaStockService reservaStockService;
+	private PedidoService pedidoService;
+
+	@BeforeEach
+	void preparar() {
+		libroClient = new LibroClientLocal()
+				.agregar(libro(1, 10.0))
+				.agregar(libro(2, 20.0))
+				.agregar(libro(3, 30.0));
+
+		pedidoRepository = mock(IPedidoRepository.class);
+		when(pedidoRepository.save(any(Pedido.class))).thenAnswer(inv -> inv.getArgument(0));
+		detalleRepo = mock(IDetallePedidoRepository.class);
+
+		GetUserByIdResponse cliente = new GetUserByIdResponse();
+		cliente.setId(5L);
+		cliente.setExists(true);
+		AuthService authService = mock(AuthService.class);
+		when(authService.buscarUsuarioPorId(anyLong())).thenReturn(cliente);
+
+		ReintentoConflictos reintento = mock(ReintentoConflictos.class);
+		when(reintento.ejecutar(anyString(), any())).thenAnswer(inv -> inv.<Supplier<?>>getArgument(1).get());
+
+		pedidoService = new PedidoService();
+		ReflectionTestUtils.setField(pedidoService, "pedidoRepository", pedidoRepository);
+		ReflectionTestUtils.setField(pedidoService, "detalleRepo", detalleRepo);
+		ReflectionTestUtils.setField(pedidoService, "authService", authService);
+		ReflectionTestUtils.setField(pedidoService, "libroService", LibroServicePruebas.crear(libroClient));
+		ReflectionTestUtils.setField(pedidoService, "reintentoConflictos", reintento);
+
+		reservaStockService = mock(ReservaStockService.class);
+		ReflectionTestUtils.setField(pedidoService, "reservaStockService", reservaStockService);
+	}
+
+	@Test
+	void crearPedidoConsultaCadaLibroUnaVezEnLote() {
+		Pedido pedido = pedidoService.crearPedido(pedido(linea(1, 2), linea(2, 1), linea(1, 1)));
+
+		assertEquals(1, libroClient.getConsultasEnLote());
+		assertEquals(0, libroClient.getConsultasIndividuales());
+		assertEquals(1, libroClient.getConsultasDeLibro(1));
+		assertEquals(1, libroClient.getConsultasDeLibro(2));
+		assertEquals(3, pedido.getDetalles().size());
+		assertEquals(50.0, pedido.getTotal());
+	}
+
+	@Test
+	void sinConsultaEnLoteSeConsultaCadaLibroUnaVezYNoSeReintentaElLote() {
+		libroClient.sinConsultaEnLote();
+
+		pedidoService.crearPedido(pedido(linea(1, 2), linea(2, 1), linea(1, 1)));
+		assertEquals(1, libroClient.getConsultasEnLote());
+		assertEquals(2, libroClient.getConsultasIndividuales());
+		assertEquals(1, libroClient.getConsultasDeLibro(1));
+		assertEquals(1, libroClient.getConsultasDeLibro(2));
+
+		pedidoService.crearPedido(pedido(linea(3, 1)));
+		assertEquals(1, libroClient.getConsultasEnLote(), "El endpoint en lote no soportado no se vuelve a probar");
+		assertEquals(1, libroClient.getConsultasDeLibro(3));
+	}
+
+	@Test
+	void crearPedidoFallaSiUnLibroNoExiste() {
+		libroClient.sinConsultaEnLote();
+
+		RuntimeException e = assertThrows(RuntimeException.class,
+				() -> pedidoService.crearPedido(pedido(linea(1, 1), linea(99, 1))));
+		assertTrue(e.getMessage().contains("Libro con ID 99"));
+	}
+
+	@Test
+	void actualizarPedidoSoloConsultaLosLibrosNuevosYLosQueAumentanSuReserva() {
+		Pedido existente = pedidoPendiente(7, detalle(1, 2, 10.0), detalle(2, 1, 20.0), detalle(4, 5, 40.0));
+		when(pedidoRepository.findWithDetallesById(7)).thenReturn(Optional.of(existente));
+		when(reservaStockService.retenidasPorPedido(7)).thenReturn(Map.of(1, 2, 2, 1, 4, 5));
+
+		// El libro 1 desaparece, el 2 sube de 1 a 3, el 3 es nuevo y el 4 baja de 5 a 1
+		Pedido actualizado = pedidoService.actualizarPedido(7,
+				pedido(linea(2, 3), linea(3, 1), linea(3, 1), linea(4, 1)));
+
+		assertEquals(1, libroClient.getConsultasEnLote());
+		assertEquals(0, libroClient.getConsultasDeLibro(1));
+		assertEquals(1, libroClient.getConsultasDeLibro(2));
+		assertEquals(1, libroClient.getConsultasDeLibro(3));
+		assertEquals(0, libroClient.getConsultasDeLibro(4));
+		assertEquals(3, actualizado.getDetalles().size());
+		assertEquals(160.0, actualizado.getTotal());
+		verify(detalleRepo).deleteAll(any());
+		verify(reservaStockService).ajustar(eq(7), eq(Map.of(2, 3, 3, 2, 4, 1)), any());
+	}
+
+	@Test
+	void actualizarPedidoFallaSiLaReservaNoCabe() {
+		Pedido existente = pedidoPendiente(8, detalle(1, 2, 10.0));
+		when(pedidoRepository.findWithDetallesById(8)).thenReturn(Optional.of(existente));
+		when(reservaStockService.ajustar(eq(8), any(), any()))
+				.thenReturn(List.of("Stock insuficiente para el libro 'Libro 1'. Stock disponible: 3"));
+
+		RuntimeException e = assertThrows(RuntimeException.class,
+				() -> pedidoService.actualizarPedido(8, pedido(linea(1, 9))));
+		assertTrue(e.getMessage().contains("Stock insuficiente"));
+		verify(pedidoRepository, never()).save(any(Pedido.class));
+	}
+
+	@Test
+	void actualizarPedidoQueDejaDeEstarPendienteLiberaSusReservas() {
+		Pedido existente = pedidoPendiente(9, detalle(1, 2, 10.0));
+		when(pedidoRepository.findWithDetallesById(9)).thenReturn(Optional.of(existente));
+		when(reservaStockService.retenidasPorPedido(9)).thenReturn(Map.of(1, 2));
+
+		PedidoDTO dto = pedido(linea(1, 5));
+		dto.setEstado("CANCELADO");
+		pedidoService.actualizarPedido(9, dto);
+
+		assertEquals(0, libroClient.getConsultasEnLote());
+		verify(reservaStockService).ajustar(9, Map.of(), Map.of());
+	}
+
+	private static Pedido pedidoPendiente(int id, DetallePedido... detalles) {
+		Pedido pedido = new Pedido();
+		pedido.setId(id);
+		pedido.setEstado("PENDIENTE");
+		for (DetallePedido detalle : detalles) {
+			detalle.setPedido(pedido);
+		}
+		pedido.setDetalles(new ArrayList<>(List.of(detalles)));
+		return pedido;
+	}
+
+	private static LibroDTO libro(int id, double precio) {
+		LibroDTO libro = new LibroDTO();
+		libro.setId(id);
+		libro.setTitulo("Libro " + id);
+		libro.setPrecio(precio);
+		libro.setStock(100);
+		libro.setEstado(true);
+		return libro;
+	}
+
+	private static PedidoDTO pedido(DetallePedidoDTO... lineas) {
+		PedidoDTO dto = new PedidoDTO();
+		dto.setClienteId(5);
+		dto.setDetalles(List.of(lineas));
+		return dto;
+	}
+
+	private static DetallePedidoDTO linea(int libroId, int cantidad) {
+		return new DetallePedidoDTO(libroId, cantidad, 0);
+	}
+
+	private static DetallePedido detalle(int libroId, int cantidad, double precio) {
+		DetallePedido detalle = new DetallePedido();
+		detalle.setLibroId(libroId);
+		detalle.setCantidad(cantidad);
+		detalle.setPrecioUnitario(precio);
+		return detalle;
+	}
+}
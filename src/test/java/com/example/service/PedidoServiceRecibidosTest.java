@@ -0,0 +1,159 @@
+package com.example.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.example.DTO.LibroDTO;
+import com.example.feign.LibroClientLocal;
+import com.example.feign.LibroServicePruebas;
+import com.example.model.DetallePedido;
+import com.example.model.Pedido;
+import com.example.repository.IPedidoRepository;
+
+import feign.FeignException;
+import feign.Request;
+
+// Pedidos asíncronos: RECIBIDO pasa a PENDIENTE o RECHAZADO, sigue RECIBIDO si libro-service falla de forma
+// transitoria y el barrido no encola dos veces un pedido que sigue en la cola
+class PedidoServiceRecibidosTest {
+
+	private IPedidoRepository pedidoRepository;
+	private ReservaStockService reservaStockService;
+	private PedidoService pedidoService;
+	private final List<Runnable> encolados = new ArrayList<>();
+
+	@BeforeEach
+	void preparar() {
+		pedidoRepository = mock(IPedidoRepository.class);
+		when(pedidoRepository.save(any(Pedido.class))).thenAnswer(inv -> inv.getArgument(0));
+		reservaStockService = mock(ReservaStockService.class);
+
+		// Cola que no ejecuta nada hasta que la prueba lo pide
+		AsyncTaskExecutor cola = new SimpleAsyncTaskExecutor() {
+			@Override
+			public void execute(Runnable tarea) {
+				encolados.add(tarea);
+			}
+		};
+
+		pedidoService = new PedidoService();
+		ReflectionTestUtils.setField(pedidoService, "pedidoRepository", pedidoRepository);
+		ReflectionTestUtils.setField(pedidoService, "reservaStockService", reservaStockService);
+		ReflectionTestUtils.setField(pedidoService, "transactionManager", mock(PlatformTransactionManager.class));
+		ReflectionTestUtils.setField(pedidoService, "pedidosExecutor", cola);
+		usarLibros(new LibroClientLocal().agregar(libro(1, 10.0, 5)).agregar(libro(2, 20.0, 5)));
+	}
+
+	@Test
+	void conLibrosYStockPasaAPendienteConPreciosYReservas() {
+		Pedido pedido = recibido(1, linea(1, 2), linea(2, 1));
+
+		pedidoService.procesarPedidoRecibido(1);
+
+		assertEquals("PENDIENTE", pedido.getEstado());
+		assertEquals(40.0, pedido.getTotal());
+		assertEquals("Libro 1", pedido.getDetalles().get(0).getTituloLibro());
+		verify(reservaStockService).registrar(1, Map.of(1, 2, 2, 1));
+	}
+
+	@Test
+	void sinStockOLibroInexistenteSeRechazaConLosErrores() {
+		Pedido pedido = recibido(2, linea(1, 9), linea(99, 1));
+
+		pedidoService.procesarPedidoRecibido(2);
+
+		assertEquals("RECHAZADO", pedido.getEstado());
+		assertEquals(2, pedido.getErrores().size());
+		assertTrue(pedido.getErrores().get(0).contains("Stock insuficiente"));
+		assertTrue(pedido.getErrores().get(1).contains("ID 99"));
+		verify(reservaStockService, never()).retener(anyMap(), anyMap());
+		verify(pedidoRepository).save(pedido);
+	}
+
+	@Test
+	void siLibroServiceFallaDeFormaTransitoriaSigueRecibido() {
+		usarLibros(new LibroClientLocal() {
+			@Override
+			public LibroDTO obtenerLibroPorId(int id) {
+				Request request = Request.create(Request.HttpMethod.GET, "http://localhost:8082/libros/" + id,
+						Map.of(), null, StandardCharsets.UTF_8, null);
+				throw new FeignException.ServiceUnavailable("[503 Service Unavailable]", request, null, Map.of());
+			}
+		});
+		Pedido pedido = recibido(3, linea(1, 1));
+
+		pedidoService.procesarPedidoRecibido(3);
+
+		assertEquals("RECIBIDO", pedido.getEstado());
+		verify(pedidoRepository, never()).save(any(Pedido.class));
+		verify(reservaStockService, never()).retener(anyMap(), anyMap());
+	}
+
+	@Test
+	void unPedidoEnColaNoSeEncolaDeNuevoHastaTerminar() {
+		recibido(4, linea(1, 1));
+
+		pedidoService.encolarPedidoRecibido(4);
+		pedidoService.encolarPedidoRecibido(4);
+		assertEquals(1, encolados.size());
+
+		encolados.get(0).run();
+		pedidoService.encolarPedidoRecibido(4);
+		assertEquals(2, encolados.size());
+	}
+
+	private void usarLibros(LibroClientLocal libroClient) {
+		ReflectionTestUtils.setField(pedidoService, "libroService", LibroServicePruebas.crear(libroClient));
+	}
+
+	private Pedido recibido(int id, DetallePedido... lineas) {
+		Pedido pedido = new Pedido();
+		pedido.setId(id);
+		pedido.setClienteId(5);
+		pedido.setEstado("RECIBIDO");
+		pedido.setTotal(0.0);
+		for (DetallePedido linea : lineas) {
+			linea.setPedido(pedido);
+		}
+		pedido.setDetalles(new ArrayList<>(List.of(lineas)));
+		when(pedidoRepository.findWithDetallesById(id)).thenReturn(Optional.of(pedido));
+		return pedido;
+	}
+
+	private static DetallePedido linea(int libroId, int cantidad) {
+		DetallePedido detalle = new DetallePedido();
+		detalle.setLibroId(libroId);
+		detalle.setCantidad(cantidad);
+		detalle.setPrecioUnitario(0.0);
+		return detalle;
+	}
+
+	private static LibroDTO libro(int id, double precio, int stock) {
+		LibroDTO libro = new LibroDTO();
+		libro.setId(id);
+		libro.setTitulo("Libro " + id);
+		libro.setPrecio(precio);
+		libro.setStock(stock);
+		libro.setEstado(true);
+		return libro;
+	}
+}
@@ -0,0 +1,133 @@
+package com.example.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.example.controller.PedidoController;
+import com.example.model.Pedido;
+import com.example.repository.IPedidoRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Conflictos de @Version: cada intento relee desde el principio, cuenta pedidos.conflictos
+// y al agotar los intentos se lanza ConflictoConcurrenciaException (409 en PedidoController)
+class ReintentoConflictosTest {
+
+	private static final int MAX_INTENTOS = 4;
+
+	private SimpleMeterRegistry meterRegistry;
+	private PlatformTransactionManager transactionManager;
+	private ReintentoConflictos reintento;
+
+	@BeforeEach
+	void preparar() {
+		meterRegistry = new SimpleMeterRegistry();
+		transactionManager = mock(PlatformTransactionManager.class);
+
+		reintento = new ReintentoConflictos();
+		ReflectionTestUtils.setField(reintento, "transactionManager", transactionManager);
+		ReflectionTestUtils.setField(reintento, "meterRegistry", meterRegistry);
+		ReflectionTestUtils.setField(reintento, "maxIntentos", MAX_INTENTOS);
+		ReflectionTestUtils.setField(reintento, "backoffInicial", Duration.ofMillis(1));
+		reintento.iniciar();
+	}
+
+	@Test
+	void reintentaDesdeLaLecturaHastaQueNoHayConflicto() {
+		AtomicInteger lecturas = new AtomicInteger();
+
+		String resultado = reintento.ejecutar("actualizar", () -> {
+			if (lecturas.incrementAndGet() <= 2) {
+				throw conflicto();
+			}
+			return "ok";
+		});
+
+		assertEquals("ok", resultado);
+		assertEquals(3, lecturas.get());
+		assertEquals(2.0, conflictos("actualizar"));
+		// Cada intento fallido revierte su propia transacción
+		verify(transactionManager, times(2)).rollback(any());
+		verify(transactionManager, times(1)).commit(any());
+	}
+
+	@Test
+	void alAgotarLosIntentosLanzaConflictoConcurrencia() {
+		AtomicInteger lecturas = new AtomicInteger();
+
+		ConflictoConcurrenciaException e = assertThrows(ConflictoConcurrenciaException.class,
+				() -> reintento.ejecutar("finalizar", () -> {
+					lecturas.incrementAndGet();
+					throw conflicto();
+				}));
+
+		assertInstanceOf(ObjectOptimisticLockingFailureException.class, e.getCause());
+		assertEquals(MAX_INTENTOS, lecturas.get());
+		assertEquals(MAX_INTENTOS, conflictos("finalizar"));
+	}
+
+	@Test
+	void otrasExcepcionesNoSeReintentan() {
+		AtomicInteger lecturas = new AtomicInteger();
+
+		assertThrows(RuntimeException.class, () -> reintento.ejecutar("actualizar", () -> {
+			lecturas.incrementAndGet();
+			throw new RuntimeException("Pedido no encontrado");
+		}));
+
+		assertEquals(1, lecturas.get());
+		assertEquals(0.0, conflictos("actualizar"));
+	}
+
+	@Test
+	void unConflictoPersistenteAlFinalizarRespondeConflict() throws Exception {
+		Pedido pedido = new Pedido();
+		pedido.setId(7);
+		pedido.setEstado("PENDIENTE");
+		IPedidoRepository pedidoRepository = mock(IPedidoRepository.class);
+		when(pedidoRepository.findById(7)).thenReturn(Optional.of(pedido));
+		when(pedidoRepository.save(any(Pedido.class))).thenThrow(conflicto());
+
+		PedidoService pedidoService = new PedidoService();
+		ReflectionTestUtils.setField(pedidoService, "pedidoRepository", pedidoRepository);
+		ReflectionTestUtils.setField(pedidoService, "reintentoConflictos", reintento);
+		PedidoController controller = new PedidoController();
+		ReflectionTestUtils.setField(controller, "pedidoService", pedidoService);
+		MockMvc mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+		mockMvc.perform(put("/pedidos/7/finalizar"))
+				.andExpect(status().isConflict());
+
+		// Cada intento volvió a leer el pedido
+		verify(pedidoRepository, times(MAX_INTENTOS)).findById(7);
+		assertEquals(MAX_INTENTOS, conflictos("finalizar"));
+	}
+
+	private double conflictos(String operacion) {
+		return meterRegistry.counter("pedidos.conflictos", "operacion", operacion).count();
+	}
+
+	private static ObjectOptimisticLockingFailureException conflicto() {
+		return new ObjectOptimisticLockingFailureException(Pedido.class, 7);
+	}
+}
@@ -0,0 +1,236 @@
+package com.example.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.DTO.LibroDTO;
+import com.example.model.ReservaStock;
+import com.example.repository.IReservaStockRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Ciclo de vida de las reservas contra la BD: retener, consumir, descontar, vencer y reconstruir el contador
+@DataJpaTest
+// Las reservas sueltan el contador al confirmar: cada paso confirma su propia transacción
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ReservaStockServiceTest {
+
+	private static final int STOCK = 10;
+
+	// Solo las entidades, los repositorios y el servicio: la aplicación completa registra clientes Feign
+	@SpringBootConfiguration
+	@EntityScan(basePackageClasses = ReservaStock.class)
+	@EnableJpaRepositories(basePackageClasses = IReservaStockRepository.class)
+	@Import(ReservaStockService.class)
+	static class Configuracion {
+
+		@Bean
+		SimpleMeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+	}
+
+	@Autowired
+	private ReservaStockService reservaStockService;
+
+	@Autowired
+	private IReservaStockRepository reservaRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private final Map<Integer, LibroDTO> libros = Map.of(1, libro(1), 2, libro(2), 3, libro(3));
+
+	@BeforeEach
+	void preparar() {
+		reservaRepository.deleteAll();
+		reservaStockService.iniciar();
+	}
+
+	@Test
+	void retenerDescuentaDelDisponibleTodoONada() {
+		assertTrue(reservaStockService.retener(Map.of(1, 7), libros).isEmpty());
+
+		List<String> errores = reservaStockService.retener(Map.of(1, 2, 2, 11), libros);
+		assertEquals(1, errores.size());
+		assertTrue(errores.get(0).contains("Stock disponible: 10"));
+		// El libro 1 no quedó retenido por el pedido rechazado
+		assertTrue(puedeRetener(1, 3));
+		assertFalse(puedeRetener(1, 4));
+	}
+
+	@Test
+	void alArrancarSeReconstruyeConActivasYConsumidas() {
+		retenerYRegistrar(100, Map.of(1, 4, 2, 3));
+		retenerYRegistrar(101, Map.of(1, 2));
+		reservaStockService.consumir(101, Set.of(1));
+		retenerYRegistrar(102, Map.of(2, 5));
+		reservaStockService.liberar(102);
+
+		reservaStockService.iniciar();
+
+		assertTrue(puedeRetener(1, 4));
+		assertFalse(puedeRetener(1, 5));
+		assertTrue(puedeRetener(2, 7));
+		assertFalse(puedeRetener(2, 8));
+	}
+
+	@Test
+	void consumirRetieneHastaElDescuentoYLiberaLosLibrosSinDescuento() {
+		retenerYRegistrar(200, Map.of(1, 6, 2, 6));
+
+		// Solo el libro 1 tiene línea en el outbox
+		reservaStockService.consumir(200, Set.of(1));
+		assertEquals(ReservaStock.CONSUMIDA, estado(200, 1));
+		assertEquals(ReservaStock.LIBERADA, estado(200, 2));
+		assertFalse(puedeRetener(1, 5));
+		assertTrue(puedeRetener(2, STOCK));
+
+		reservaStockService.descontar(200, 1);
+		assertEquals(ReservaStock.DESCONTADA, estado(200, 1));
+		assertTrue(puedeRetener(1, STOCK));
+
+		// Nada queda retenido tras reconstruir
+		reservaStockService.iniciar();
+		assertTrue(puedeRetener(1, STOCK));
+		assertTrue(puedeRetener(2, STOCK));
+	}
+
+	@Test
+	void liberarVencidasSoloSueltaLasActivasVencidas() {
+		retenerYRegistrar(300, Map.of(1, 5));
+		retenerYRegistrar(301, Map.of(2, 5));
+		retenerYRegistrar(302, Map.of(1, 3));
+		reservaStockService.consumir(302, Set.of(1));
+		vencer(300);
+		vencer(302);
+
+		reservaStockService.liberarVencidas();
+
+		assertEquals(ReservaStock.LIBERADA, estado(300, 1));
+		assertEquals(ReservaStock.ACTIVA, estado(301, 2));
+		assertEquals(ReservaStock.CONSUMIDA, estado(302, 1));
+		assertTrue(puedeRetener(1, 7));
+		assertFalse(puedeRetener(1, 8));
+		assertFalse(puedeRetener(2, 6));
+	}
+
+	@Test
+	void ajustarRetieneLoQueAumentaYLiberaLoQueBaja() {
+		retenerYRegistrar(400, Map.of(1, 5, 2, 3));
+
+		// Libro 1 baja de 5 a 2, el 2 desaparece y el 3 es nuevo
+		assertTrue(ajustar(400, Map.of(1, 2, 3, 4)).isEmpty());
+
+		assertEquals(Map.of(1, 2, 3, 4), reservaStockService.retenidasPorPedido(400));
+		assertTrue(puedeRetener(1, 8));
+		assertFalse(puedeRetener(1, 9));
+		assertTrue(puedeRetener(2, STOCK));
+		assertFalse(puedeRetener(3, 7));
+
+		// Lo mismo tras reconstruir desde la BD
+		reservaStockService.iniciar();
+		assertFalse(puedeRetener(1, 9));
+		assertTrue(puedeRetener(2, STOCK));
+		assertFalse(puedeRetener(3, 7));
+	}
+
+	@Test
+	void ajustarRechazaTodoSiUnAumentoNoCabe() {
+		retenerYRegistrar(500, Map.of(1, 5, 2, 3));
+		retenerYRegistrar(501, Map.of(2, 6));
+
+		List<String> errores = ajustar(500, Map.of(1, 1, 2, 5));
+
+		assertEquals(1, errores.size());
+		assertTrue(errores.get(0).contains("Libro 2"));
+		// Ni el aumento del libro 2 ni la baja del libro 1 se aplicaron
+		assertEquals(Map.of(1, 5, 2, 3), reservaStockService.retenidasPorPedido(500));
+		assertFalse(puedeRetener(1, 6));
+	}
+
+	@Test
+	void siLaTransaccionSeRevierteElAumentoSeDeshace() {
+		retenerYRegistrar(600, Map.of(1, 2));
+
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+			assertTrue(reservaStockService.ajustar(600, Map.of(1, 9), libros).isEmpty());
+			status.setRollbackOnly();
+		});
+
+		assertEquals(Map.of(1, 2), reservaStockService.retenidasPorPedido(600));
+		assertTrue(puedeRetener(1, 8));
+	}
+
+	private List<String> ajustar(int pedidoId, Map<Integer, Integer> cantidades) {
+		return new TransactionTemplate(transactionManager)
+				.execute(status -> {
+					List<String> errores = reservaStockService.ajustar(pedidoId, cantidades, libros);
+					// Como actualizarPedido: un rechazo revierte la edición entera
+					if (!errores.isEmpty()) {
+						status.setRollbackOnly();
+					}
+					return errores;
+				});
+	}
+
+	private void retenerYRegistrar(int pedidoId, Map<Integer, Integer> cantidades) {
+		assertTrue(reservaStockService.retener(cantidades, libros).isEmpty());
+		new TransactionTemplate(transactionManager)
+				.executeWithoutResult(status -> reservaStockService.registrar(pedidoId, cantidades));
+	}
+
+	// Prueba si cabe la cantidad y, si cabía, la suelta para no afectar a las comprobaciones siguientes
+	private boolean puedeRetener(int libroId, int cantidad) {
+		boolean cabe = reservaStockService.retener(Map.of(libroId, cantidad), libros).isEmpty();
+		if (cabe) {
+			reservaStockService.soltar(Map.of(libroId, cantidad));
+		}
+		return cabe;
+	}
+
+	private String estado(int pedidoId, int libroId) {
+		return reservaRepository.findAll().stream()
+				.filter(reserva -> reserva.getPedidoId() == pedidoId && reserva.getLibroId() == libroId)
+				.map(ReservaStock::getEstado)
+				.findFirst()
+				.orElseThrow();
+	}
+
+	private void vencer(int pedidoId) {
+		List<ReservaStock> reservas = reservaRepository.findAll().stream()
+				.filter(reserva -> reserva.getPedidoId() == pedidoId)
+				.toList();
+		reservas.forEach(reserva -> reserva.setExpiraEn(LocalDateTime.now().minusMinutes(1)));
+		reservaRepository.saveAll(reservas);
+	}
+
+	private static LibroDTO libro(int id) {
+		LibroDTO libro = new LibroDTO();
+		libro.setId(id);
+		libro.setTitulo("Libro " + id);
+		libro.setStock(STOCK);
+		libro.setEstado(true);
+		return libro;
+	}
+}
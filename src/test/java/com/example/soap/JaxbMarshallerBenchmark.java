@@ -0,0 +1,92 @@
+package com.example.soap;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.oxm.jaxb.Jaxb2Marshaller;
+
+import com.kirbook.auth.GetUserByIdRequest;
+import com.kirbook.auth.GetUserByIdResponse;
+import com.kirbook.auth.GetUsersByIdsRequest;
+import com.kirbook.auth.GetUsersByIdsResponse;
+import com.kirbook.auth.ValidateTokenRequest;
+import com.kirbook.auth.ValidateTokenResponse;
+
+// Ida y vuelta de un ValidateTokenResponse (la llamada SOAP más frecuente) con el Jaxb2Marshaller
+// de Spring frente a JaxbMarshallerPool. No lo ejecuta surefire; lanzar con main() o con
+// org.openjdk.jmh.Main JaxbMarshallerBenchmark sobre el classpath de test.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class JaxbMarshallerBenchmark {
+
+	private static final Class<?>[] TIPOS = {
+			ValidateTokenRequest.class, ValidateTokenResponse.class,
+			GetUserByIdRequest.class, GetUserByIdResponse.class,
+			GetUsersByIdsRequest.class, GetUsersByIdsResponse.class };
+
+	private Jaxb2Marshaller jaxb2Marshaller;
+	private JaxbMarshallerPool pool;
+	private ValidateTokenResponse respuesta;
+
+	@Setup
+	public void preparar() throws Exception {
+		// Como estaba configurado en SoapConfig antes del pool
+		jaxb2Marshaller = new Jaxb2Marshaller();
+		jaxb2Marshaller.setContextPath("com.kirbook.auth");
+		jaxb2Marshaller.afterPropertiesSet();
+
+		pool = new JaxbMarshallerPool(32, TIPOS);
+
+		respuesta = new ValidateTokenResponse();
+		respuesta.setValid(true);
+		respuesta.setId(42L);
+		respuesta.setUsername("ana");
+		respuesta.setEmail("ana@kirbook.com");
+		respuesta.setNombre("Ana");
+		respuesta.setApellido("Pérez");
+		respuesta.setRol("ROLE_USER");
+	}
+
+	@Benchmark
+	public Object jaxb2Marshaller() throws IOException {
+		StringWriter xml = new StringWriter();
+		jaxb2Marshaller.marshal(respuesta, new StreamResult(xml));
+		return jaxb2Marshaller.unmarshal(new StreamSource(new StringReader(xml.toString())));
+	}
+
+	@Benchmark
+	public Object jaxbMarshallerPool() throws IOException {
+		StringWriter xml = new StringWriter();
+		pool.marshal(respuesta, new StreamResult(xml));
+		return pool.unmarshal(new StreamSource(new StringReader(xml.toString())));
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+				.include(JaxbMarshallerBenchmark.class.getSimpleName())
+				.build()).run();
+	}
+}
@@ -0,0 +1,141 @@
+package com.example.soap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.jupiter.api.Test;
+
+import com.kirbook.auth.GetUserByIdRequest;
+import com.kirbook.auth.GetUserByIdResponse;
+import com.kirbook.auth.GetUsersByIdsRequest;
+import com.kirbook.auth.GetUsersByIdsResponse;
+import com.kirbook.auth.LoginRequest;
+import com.kirbook.auth.ValidateTokenRequest;
+import com.kirbook.auth.ValidateTokenResponse;
+
+// Los seis tipos que registra SoapConfig sobreviven una ida y vuelta por el pool
+class JaxbMarshallerPoolTest {
+
+	private final JaxbMarshallerPool pool = new JaxbMarshallerPool(2,
+			ValidateTokenRequest.class, ValidateTokenResponse.class,
+			GetUserByIdRequest.class, GetUserByIdResponse.class,
+			GetUsersByIdsRequest.class, GetUsersByIdsResponse.class);
+
+	@Test
+	void validateTokenRequest() throws Exception {
+		ValidateTokenRequest request = new ValidateTokenRequest();
+		request.setToken("abc.def.ghi");
+
+		ValidateTokenRequest copia = idaYVuelta(request, ValidateTokenRequest.class);
+		assertEquals("abc.def.ghi", copia.getToken());
+	}
+
+	@Test
+	void validateTokenResponse() throws Exception {
+		ValidateTokenResponse copia = idaYVuelta(validacion(), ValidateTokenResponse.class);
+
+		assertTrue(copia.isValid());
+		assertEquals("ok", copia.getMessage());
+		assertEquals(42L, copia.getId());
+		assertEquals("ana", copia.getUsername());
+		assertEquals("ana@kirbook.com", copia.getEmail());
+		assertEquals("Ana", copia.getNombre());
+		assertEquals("Pérez", copia.getApellido());
+		assertEquals("ROLE_USER", copia.getRol());
+	}
+
+	@Test
+	void getUserByIdRequest() throws Exception {
+		GetUserByIdRequest request = new GetUserByIdRequest();
+		request.setId(7L);
+
+		assertEquals(7L, idaYVuelta(request, GetUserByIdRequest.class).getId());
+	}
+
+	@Test
+	void getUserByIdResponse() throws Exception {
+		GetUserByIdResponse copia = idaYVuelta(usuario(7L), GetUserByIdResponse.class);
+
+		assertUsuario(usuario(7L), copia);
+	}
+
+	@Test
+	void getUsersByIdsRequest() throws Exception {
+		GetUsersByIdsRequest request = new GetUsersByIdsRequest();
+		request.getId().addAll(List.of(1L, 2L, 3L));
+
+		assertEquals(List.of(1L, 2L, 3L), idaYVuelta(request, GetUsersByIdsRequest.class).getId());
+	}
+
+	@Test
+	void getUsersByIdsResponse() throws Exception {
+		GetUsersByIdsResponse response = new GetUsersByIdsResponse();
+		response.getGetUserByIdResponse().addAll(List.of(usuario(1L), usuario(2L)));
+
+		GetUsersByIdsResponse copia = idaYVuelta(response, GetUsersByIdsResponse.class);
+		assertEquals(2, copia.getGetUserByIdResponse().size());
+		assertUsuario(usuario(1L), copia.getGetUserByIdResponse().get(0));
+		assertUsuario(usuario(2L), copia.getGetUserByIdResponse().get(1));
+	}
+
+	@Test
+	void soloSoportaLosTiposRegistrados() {
+		assertTrue(pool.supports(ValidateTokenResponse.class));
+		assertFalse(pool.supports(LoginRequest.class));
+	}
+
+	// Más usos que instancias libres permitidas: las sobrantes se descartan sin afectar al resultado
+	@Test
+	void reutilizaInstanciasEntreLlamadas() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			assertEquals(42L, idaYVuelta(validacion(), ValidateTokenResponse.class).getId());
+		}
+	}
+
+	private <T> T idaYVuelta(Object objeto, Class<T> tipo) throws Exception {
+		StringWriter xml = new StringWriter();
+		pool.marshal(objeto, new StreamResult(xml));
+		Object leido = pool.unmarshal(new StreamSource(new StringReader(xml.toString())));
+		return assertInstanceOf(tipo, leido);
+	}
+
+	private static ValidateTokenResponse validacion() {
+		ValidateTokenResponse response = new ValidateTokenResponse();
+		response.setValid(true);
+		response.setMessage("ok");
+		response.setId(42L);
+		response.setUsername("ana");
+		response.setEmail("ana@kirbook.com");
+		response.setNombre("Ana");
+		response.setApellido("Pérez");
+		response.setRol("ROLE_USER");
+		return response;
+	}
+
+	private static GetUserByIdResponse usuario(long id) {
+		GetUserByIdResponse usuario = new GetUserByIdResponse();
+		usuario.setExists(true);
+		usuario.setId(id);
+		usuario.setUsername("usuario" + id);
+		usuario.setEmail("usuario" + id + "@kirbook.com");
+		usuario.setRol("ROLE_USER");
+		return usuario;
+	}
+
+	private static void assertUsuario(GetUserByIdResponse esperado, GetUserByIdResponse actual) {
+		assertEquals(esperado.isExists(), actual.isExists());
+		assertEquals(esperado.getId(), actual.getId());
+		assertEquals(esperado.getUsername(), actual.getUsername());
+		assertEquals(esperado.getEmail(), actual.getEmail());
+		assertEquals(esperado.getRol(), actual.getRol());
+	}
+}